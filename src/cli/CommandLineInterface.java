@@ -112,12 +112,14 @@ public class CommandLineInterface {
         System.out.println("Available commands:");
         System.out.println("  load <file> [file2 ...]    - Start session with images");
         System.out.println("  add <file>                 - Add image to current session");
-        System.out.println("  save                       - Save all images");
-        System.out.println("  saveas <file>              - Save first image with new name");
+        System.out.println("  save [ascii|raw] [stream]  - Save all images (stream: row by row)");
+        System.out.println("  saveas <file> [ascii|raw] [stream] - Save first image with new name");
         System.out.println("  grayscale                  - Apply grayscale transformation");
         System.out.println("  monochrome                 - Apply monochrome transformation");
         System.out.println("  negative                   - Apply negative transformation");
-        System.out.println("  rotate <left|right>        - Rotate images 90°");
+        System.out.println("  rotate <left|right|180>    - Rotate images 90° or 180°");
+        System.out.println("  flip <horizontal|vertical> - Mirror images");
+        System.out.println("  transpose                  - Mirror images across the main diagonal");
         System.out.println("  undo                       - Undo last transformation");
         System.out.println("  sessioninfo                - Show session details");
         System.out.println("  switch <session_id>        - Switch to different session");
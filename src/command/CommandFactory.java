@@ -33,6 +33,8 @@ public class CommandFactory {
         commands.put("monochrome", new MonochromeCommand(sessionManager));
         commands.put("negative", new NegativeCommand(sessionManager));
         commands.put("rotate", new RotateCommand(sessionManager));
+        commands.put("flip", new FlipCommand(sessionManager));
+        commands.put("transpose", new TransposeCommand(sessionManager));
         commands.put("close", new CloseCommand(sessionManager));
         commands.put("save", new SaveCommand(sessionManager));
         commands.put("saveas", new SaveAsCommand(sessionManager));
@@ -45,12 +45,7 @@ public class AddCommand implements Command {
 
         try {
             File imageFile = findImageFile(filename);
-
-            if (!ImageLoader.isSupportedFormat(imageFile)) {
-                throw new EditorException("Unsupported file format: " + filename);
-            }
-
-            Image image = imageLoader.loadImage(imageFile);
+            Image image = imageLoader.loadImage(imageFile, session.getStorage());
 
             session.addImage(image);
 
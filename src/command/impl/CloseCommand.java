@@ -9,6 +9,8 @@ import session.SessionManager;
  *
  * Командата не приема аргументи.
  * Ако няма активна сесия, се хвърля EditorException.
+ * Паметта на изображенията в сесията се освобождава веднага
+ * (вж. {@link SessionManager#closeCurrentSession()}).
  * След затваряне на сесията, се показва съобщение с ID на затворената сесия
  * и информация за останалите сесии, ако има такива.
  */
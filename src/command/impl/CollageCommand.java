@@ -4,6 +4,8 @@ import command.Command;
 import exception.EditorException;
 import image.Image;
 import image.impl.*;
+import image.storage.SampleBuffer;
+import image.storage.SampleStorage;
 import session.Session;
 import session.SessionManager;
 
@@ -51,7 +53,7 @@ public class CollageCommand implements Command {
 
         validateOutputFilename(image1, outputImageName);
 
-        Image collage = createCollage(direction, image1, image2, outputImageName);
+        Image collage = createCollage(direction, image1, image2, outputImageName, session.getStorage());
 
         session.addImage(collage);
 
@@ -111,22 +113,23 @@ public class CollageCommand implements Command {
      * @param image1 първото изображение
      * @param image2 второто изображение
      * @param outputName името на изходния файл
+     * @param storage хранилището на сесията, в което се създават пикселите на колажа
      * @return създаденият колаж като изображение
      * @throws EditorException ако форматът на изображението не се поддържа или възникне вътрешна грешка
      */
-    private Image createCollage(String direction, Image image1, Image image2, String outputName) throws EditorException {
+    private Image createCollage(String direction, Image image1, Image image2, String outputName, SampleStorage storage) throws EditorException {
         try {
             Image collage;
 
             switch (image1.getFormat()) {
                 case "ppm":
-                    collage = createPPMCollage(direction, (PPMImage) image1, (PPMImage) image2, outputName);
+                    collage = createPPMCollage(direction, (PPMImage) image1, (PPMImage) image2, outputName, storage);
                     break;
                 case "pgm":
-                    collage = createPGMCollage(direction, (PGMImage) image1, (PGMImage) image2, outputName);
+                    collage = createPGMCollage(direction, (PGMImage) image1, (PGMImage) image2, outputName, storage);
                     break;
                 case "pbm":
-                    collage = createPBMCollage(direction, (PBMImage) image1, (PBMImage) image2, outputName);
+                    collage = createPBMCollage(direction, (PBMImage) image1, (PBMImage) image2, outputName, storage);
                     break;
                 default:
                     throw new EditorException("Unsupported format for collage: " + image1.getFormat());
@@ -145,50 +148,23 @@ public class CollageCommand implements Command {
      * @param image1 първото PPM изображение
      * @param image2 второто PPM изображение
      * @param outputName името на изходния файл
+     * @param storage хранилището, в което се създават пикселите на колажа
      * @return новото PPM изображение, представляващо колажа
      */
-    private PPMImage createPPMCollage(String direction, PPMImage image1, PPMImage image2, String outputName) {
-        int newWidth, newHeight;
-        int[][][] newPixels;
+    private PPMImage createPPMCollage(String direction, PPMImage image1, PPMImage image2, String outputName,
+                                      SampleStorage storage) {
+        int width = image1.getWidth();
+        int height = image1.getHeight();
+        PPMImage collage = new PPMImage(new File(outputName), storage);
+        collage.setMaxColorValue(Math.max(image1.getMaxColorValue(), image2.getMaxColorValue()));
 
         if (direction.equals("horizontal")) {
-            newWidth = image1.getWidth() * 2;
-            newHeight = image1.getHeight();
-            newPixels = new int[newHeight][newWidth][3];
-
-            for (int y = 0; y < newHeight; y++) {
-                for (int x = 0; x < image1.getWidth(); x++) {
-                    newPixels[y][x] = image1.getPixels()[y][x];
-                }
-            }
-
-            for (int y = 0; y < newHeight; y++) {
-                for (int x = 0; x < image2.getWidth(); x++) {
-                    newPixels[y][x + image1.getWidth()] = image2.getPixels()[y][x];
-                }
-            }
-
+            collage.setDimensions(width * 2, height);
         } else {
-            newWidth = image1.getWidth();
-            newHeight = image1.getHeight() * 2;
-            newPixels = new int[newHeight][newWidth][3];
-
-            for (int y = 0; y < image1.getHeight(); y++) {
-                for (int x = 0; x < newWidth; x++) {
-                    newPixels[y][x] = image1.getPixels()[y][x];
-                }
-            }
-
-            for (int y = 0; y < image2.getHeight(); y++) {
-                for (int x = 0; x < newWidth; x++) {
-                    newPixels[y + image1.getHeight()][x] = image2.getPixels()[y][x];
-                }
-            }
+            collage.setDimensions(width, height * 2);
         }
 
-        PPMImage collage = new PPMImage(new File(outputName));
-        collage.setPixels(newPixels);
-        collage.setMaxColorValue(Math.max(image1.getMaxColorValue(), image2.getMaxColorValue()));
+        assemble(direction, image1.getPixels(), image2.getPixels(), collage.getPixels(), width * 3, height);
         return collage;
     }
     /**
@@ -198,50 +174,23 @@ public class CollageCommand implements Command {
      * @param image1 първото PGM изображение
      * @param image2 второто PGM изображение
      * @param outputName името на изходния файл
+     * @param storage хранилището, в което се създават пикселите на колажа
      * @return новото PGM изображение, представляващо колажа
      */
-    private PGMImage createPGMCollage(String direction, PGMImage image1, PGMImage image2, String outputName) {
-        int newWidth, newHeight;
-        int[][] newPixels;
+    private PGMImage createPGMCollage(String direction, PGMImage image1, PGMImage image2, String outputName,
+                                      SampleStorage storage) {
+        int width = image1.getWidth();
+        int height = image1.getHeight();
+        PGMImage collage = new PGMImage(new File(outputName), storage);
+        collage.setMaxColorValue(Math.max(image1.getMaxColorValue(), image2.getMaxColorValue()));
 
         if (direction.equals("horizontal")) {
-            newWidth = image1.getWidth() * 2;
-            newHeight = image1.getHeight();
-            newPixels = new int[newHeight][newWidth];
-
-            for (int y = 0; y < newHeight; y++) {
-                for (int x = 0; x < image1.getWidth(); x++) {
-                    newPixels[y][x] = image1.getPixels()[y][x];
-                }
-            }
-
-            for (int y = 0; y < newHeight; y++) {
-                for (int x = 0; x < image2.getWidth(); x++) {
-                    newPixels[y][x + image1.getWidth()] = image2.getPixels()[y][x];
-                }
-            }
-
+            collage.setDimensions(width * 2, height);
         } else {
-            newWidth = image1.getWidth();
-            newHeight = image1.getHeight() * 2;
-            newPixels = new int[newHeight][newWidth];
-
-            for (int y = 0; y < image1.getHeight(); y++) {
-                for (int x = 0; x < newWidth; x++) {
-                    newPixels[y][x] = image1.getPixels()[y][x];
-                }
-            }
-
-            for (int y = 0; y < image2.getHeight(); y++) {
-                for (int x = 0; x < newWidth; x++) {
-                    newPixels[y + image1.getHeight()][x] = image2.getPixels()[y][x];
-                }
-            }
+            collage.setDimensions(width, height * 2);
         }
 
-        PGMImage collage = new PGMImage(new File(outputName));
-        collage.setPixels(newPixels);
-        collage.setMaxColorValue(Math.max(image1.getMaxColorValue(), image2.getMaxColorValue()));
+        assemble(direction, image1.getPixels(), image2.getPixels(), collage.getPixels(), width, height);
         return collage;
     }
     /**
@@ -251,49 +200,48 @@ public class CollageCommand implements Command {
      * @param image1 първото PBM изображение
      * @param image2 второто PBM изображение
      * @param outputName името на изходния файл
+     * @param storage хранилището, в което се създават пикселите на колажа
      * @return новото PBM изображение, представляващо колажа
      */
-    private PBMImage createPBMCollage(String direction, PBMImage image1, PBMImage image2, String outputName) {
-        int newWidth, newHeight;
-        boolean[][] newPixels;
+    private PBMImage createPBMCollage(String direction, PBMImage image1, PBMImage image2, String outputName,
+                                      SampleStorage storage) {
+        int width = image1.getWidth();
+        int height = image1.getHeight();
+        PBMImage collage = new PBMImage(new File(outputName), storage);
 
         if (direction.equals("horizontal")) {
-            newWidth = image1.getWidth() * 2;
-            newHeight = image1.getHeight();
-            newPixels = new boolean[newHeight][newWidth];
-
-            for (int y = 0; y < newHeight; y++) {
-                for (int x = 0; x < image1.getWidth(); x++) {
-                    newPixels[y][x] = image1.getPixels()[y][x];
-                }
-            }
-
-            for (int y = 0; y < newHeight; y++) {
-                for (int x = 0; x < image2.getWidth(); x++) {
-                    newPixels[y][x + image1.getWidth()] = image2.getPixels()[y][x];
-                }
-            }
-
+            collage.setDimensions(width * 2, height);
         } else {
-            newWidth = image1.getWidth();
-            newHeight = image1.getHeight() * 2;
-            newPixels = new boolean[newHeight][newWidth];
-
-            for (int y = 0; y < image1.getHeight(); y++) {
-                for (int x = 0; x < newWidth; x++) {
-                    newPixels[y][x] = image1.getPixels()[y][x];
-                }
-            }
-
-            for (int y = 0; y < image2.getHeight(); y++) {
-                for (int x = 0; x < newWidth; x++) {
-                    newPixels[y + image1.getHeight()][x] = image2.getPixels()[y][x];
-                }
-            }
+            collage.setDimensions(width, height * 2);
         }
 
-        PBMImage collage = new PBMImage(new File(outputName));
-        collage.setPixels(newPixels);
+        assemble(direction, image1.getPixels(), image2.getPixels(), collage.getPixels(), width, height);
         return collage;
     }
-}
\ No newline at end of file
+    /**
+     * Сглобява пикселите на две еднакво големи изображения в буфера на колажа.
+     * Хоризонталният колаж слепва съответните редове на двете изображения,
+     * а вертикалният копира второто изображение изцяло след първото.
+     *
+     * @param direction посоката на колажа ("horizontal" или "vertical")
+     * @param pixels1 пикселите на първото изображение
+     * @param pixels2 пикселите на второто изображение
+     * @param collage буферът на колажа
+     * @param rowLength брой семпли в един ред на изходните изображения
+     * @param height височината на изходните изображения
+     */
+    private void assemble(String direction, SampleBuffer pixels1, SampleBuffer pixels2,
+                          SampleBuffer collage, int rowLength, int height) {
+        if (direction.equals("horizontal")) {
+            for (int y = 0; y < height; y++) {
+                long row = (long) y * rowLength;
+                pixels1.copyRange(row, collage, 2 * row, rowLength);
+                pixels2.copyRange(row, collage, 2 * row + rowLength, rowLength);
+            }
+        } else {
+            long length = (long) rowLength * height;
+            pixels1.copyRange(0, collage, 0, length);
+            pixels2.copyRange(0, collage, length, length);
+        }
+    }
+}
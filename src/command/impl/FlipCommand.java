@@ -0,0 +1,42 @@
+package command.impl;
+
+import command.Command;
+import exception.EditorException;
+import session.SessionManager;
+
+/**
+ * Команда за огледално обръщане на изображенията в текущата сесия.
+ */
+public class FlipCommand implements Command {
+    private final SessionManager sessionManager;
+
+    /**
+     * Конструктор за FlipCommand.
+     * @param sessionManager мениджър на сесии
+     */
+    public FlipCommand(SessionManager sessionManager) {
+        this.sessionManager = sessionManager;
+    }
+
+    /**
+     * Изпълнява командата за огледално обръщане на изображения.
+     * Позволените аргументи са "horizontal" и "vertical".
+     * @param args аргументи на командата
+     * @throws EditorException при липсващи или невалидни аргументи,
+     *                         или ако няма активна сесия
+     */
+    @Override
+    public void execute(String[] args) throws EditorException {
+        if (args.length != 1) {
+            throw new EditorException("Invalid arguments. Use 'flip horizontal' or 'flip vertical'.");
+        }
+
+        String axis = args[0];
+        if (!axis.equals("horizontal") && !axis.equals("vertical")) {
+            throw new EditorException("Invalid flip direction. Use 'horizontal' or 'vertical'.");
+        }
+
+        sessionManager.getValidatedActiveSession().addTransformation("flip_" + axis);
+        System.out.println("Queued " + axis + " flip transformation");
+    }
+}
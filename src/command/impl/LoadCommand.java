@@ -5,15 +5,20 @@ import session.SessionManager;
 import exception.EditorException;
 import image.Image;
 import image.ImageLoader;
+import image.storage.SampleStorage;
 
 import java.io.File;
-import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * Команда за зареждане на изображения и създаване на нова сесия.
- * Позволява зареждане на един или повече файлове.
+ * Позволява зареждане на един или повече файлове, които се декодират
+ * едновременно - всеки във своя виртуална нишка. Пикселите им се създават
+ * в ново хранилище (вж. {@link SampleStorage#open()}), което принадлежи на сесията.
  */
 public class LoadCommand implements Command {
     private final SessionManager sessionManager;
@@ -46,30 +51,36 @@ public class LoadCommand implements Command {
         List<Image> loadedImages = new ArrayList<>();
         List<String> errorMessages = new ArrayList<>();
 
-        for (String filename : args) {
-            try {
-                File imageFile = findImageFile(filename);
+        SampleStorage storage = SampleStorage.open();
+        List<Future<Image>> results = loadConcurrently(args, storage);
 
-                if (!ImageLoader.isSupportedFormat(imageFile)) {
-                    errorMessages.add(filename + " (unsupported format)");
-                    continue;
-                }
-
-                Image image = imageLoader.loadImage(imageFile);
-                loadedImages.add(image);
-                System.out.println("Image \"" + filename + "\" added");
+        for (int i = 0; i < args.length; i++) {
+            Future<Image> result = results.get(i);
+            if (result.state() == Future.State.SUCCESS) {
+                loadedImages.add(result.resultNow());
+                System.out.println("Image \"" + args[i] + "\" added");
+                continue;
+            }
 
-            } catch (IOException | EditorException e) {
-                errorMessages.add(filename + " (" + e.getMessage() + ")");
+            Throwable error = result.exceptionNow();
+            if (error instanceof RuntimeException runtimeException) {
+                storage.close();
+                throw runtimeException;
             }
+            if (error instanceof Error fatal) {
+                storage.close();
+                throw fatal;
+            }
+            errorMessages.add(args[i] + " (" + error.getMessage() + ")");
         }
 
         if (loadedImages.isEmpty()) {
+            storage.close();
             throw new EditorException("Failed to load any images. Errors: " +
                     String.join(", ", errorMessages));
         }
 
-        sessionManager.createSession();
+        sessionManager.createSession(storage);
 
         for (Image image : loadedImages) {
             sessionManager.addImageToActiveSession(image);
@@ -83,6 +94,23 @@ public class LoadCommand implements Command {
         }
     }
 
+    /**
+     * Зарежда файловете едновременно, като всеки се декодира във своя
+     * виртуална нишка. Методът връща след приключване на всички зареждания.
+     * @param filenames имена на файлове за зареждане
+     * @param storage хранилището, в което се създават пикселите
+     * @return резултатите от зареждането в реда на имената
+     */
+    private List<Future<Image>> loadConcurrently(String[] filenames, SampleStorage storage) {
+        List<Future<Image>> results = new ArrayList<>(filenames.length);
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (String filename : filenames) {
+                results.add(executor.submit(() -> imageLoader.loadImage(findImageFile(filename), storage)));
+            }
+        }
+        return results;
+    }
+
     /**
      * Намира файл по подадено име чрез проверка на различни директории и разширения.
      * @param filename име на файла
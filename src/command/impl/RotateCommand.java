@@ -20,7 +20,7 @@ public class RotateCommand implements Command {
 
     /**
      * Изпълнява командата за завъртане на изображения.
-     * Позволените аргументи са "left" и "right".
+     * Позволените аргументи са "left", "right" и "180".
      * @param args аргументи на командата
      * @throws EditorException при липсващи или невалидни аргументи,
      *                         или ако няма активна сесия
@@ -28,12 +28,12 @@ public class RotateCommand implements Command {
     @Override
     public void execute(String[] args) throws EditorException {
         if (args.length != 1) {
-            throw new EditorException("Invalid arguments. Use 'rotate left' or 'rotate right'.");
+            throw new EditorException("Invalid arguments. Use 'rotate left', 'rotate right' or 'rotate 180'.");
         }
 
         String direction = args[0];
-        if (!direction.equals("left") && !direction.equals("right")) {
-            throw new EditorException("Invalid rotation direction. Use 'left' or 'right'.");
+        if (!direction.equals("left") && !direction.equals("right") && !direction.equals("180")) {
+            throw new EditorException("Invalid rotation direction. Use 'left', 'right' or '180'.");
         }
 
         sessionManager.getValidatedActiveSession().addTransformation("rotate_" + direction);
@@ -3,11 +3,13 @@ package command.impl;
 import command.Command;
 import exception.EditorException;
 import image.Image;
+import image.io.Encoding;
 import session.Session;
 import session.SessionManager;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.List;
 
 /**
  * Команда за записване на първото изображение от сесията под ново име.
@@ -25,14 +27,17 @@ public class SaveAsCommand implements Command {
 
     /**
      * Изпълнява командата за записване на изображение под ново име.
-     * @param args аргументи (име на новия файл)
+     * @param args аргументи (име на новия файл, незадължително кодиране "ascii"
+     *             или "raw" и незадължително "stream" за поточен запис)
      * @throws EditorException при липса на изображения или грешка при запис
      */
     @Override
     public void execute(String[] args) throws EditorException {
-        if (args.length != 1) {
-            throw new EditorException("Saveas command requires exactly one argument: output filename. " +
-                    "Usage: saveas <filename>");
+        boolean streaming = args.length > 1 && args[args.length - 1].equalsIgnoreCase(SaveCommand.STREAM);
+        int argCount = streaming ? args.length - 1 : args.length;
+        if (argCount < 1 || argCount > 2) {
+            throw new EditorException("Saveas command requires an output filename, an optional encoding " +
+                    "and an optional \"" + SaveCommand.STREAM + "\". Usage: saveas <filename> [ascii|raw] [stream]");
         }
 
         Session session = sessionManager.getValidatedActiveSession();
@@ -43,11 +48,12 @@ public class SaveAsCommand implements Command {
 
         Image original = session.getImages().get(0);
         String outputFilename = args[0];
+        Encoding encoding = argCount == 2 ? Encoding.fromName(args[1]) : original.getEncoding();
 
         validateOutputFilename(original, outputFilename);
         Image clone = original.cloneImage();
         applyTransformations(session, clone);
-        saveImageToFile(clone, outputFilename);
+        saveImageToFile(clone, outputFilename, encoding, streaming);
 
         System.out.println("Successfully saved as " + outputFilename);
     }
@@ -73,36 +79,9 @@ public class SaveAsCommand implements Command {
      * @throws EditorException при непозната трансформация
      */
     private void applyTransformations(Session session, Image image) throws EditorException {
-        for (String transformation : session.getTransformations()) {
-            applySingleTransformation(image, transformation);
-        }
-    }
-
-    /**
-     * Прилага конкретна трансформация върху изображение.
-     * @param image изображението за трансформация
-     * @param transformation името на трансформацията
-     * @throws EditorException при непозната трансформация
-     */
-    private void applySingleTransformation(Image image, String transformation) throws EditorException {
-        switch (transformation) {
-            case "grayscale":
-                image.applyGrayscale();
-                break;
-            case "monochrome":
-                image.applyMonochrome();
-                break;
-            case "negative":
-                image.applyNegative();
-                break;
-            case "rotate_left":
-                image.applyRotation("left");
-                break;
-            case "rotate_right":
-                image.applyRotation("right");
-                break;
-            default:
-                throw new EditorException("Unknown transformation: " + transformation);
+        List<String> transformations = session.getTransformations();
+        if (!transformations.isEmpty()) {
+            image.applyTransformations(transformations);
         }
     }
 
@@ -110,12 +89,15 @@ public class SaveAsCommand implements Command {
      * Записва изображението във файл.
      * @param image изображението за запис
      * @param filename име на файла
+     * @param encoding кодирането на растера
+     * @param streaming дали записът е поточен
      * @throws EditorException при грешка при запис
      */
-    private void saveImageToFile(Image image, String filename) throws EditorException {
+    private void saveImageToFile(Image image, String filename, Encoding encoding,
+                                 boolean streaming) throws EditorException {
         File outputFile = new File("target_images/new images/" + filename);
         try {
-            image.save(outputFile);
+            image.save(outputFile, encoding, streaming);
         } catch (IOException e) {
             throw new EditorException("Failed to save image to: " + filename);
         }
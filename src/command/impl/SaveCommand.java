@@ -5,15 +5,41 @@ import session.Session;
 import session.SessionManager;
 import exception.EditorException;
 import image.Image;
+import image.io.Encoding;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * Команда за записване на всички изображения в текущата сесия.
+ * <p>
+ * Всяко изображение се обработва като отделна задача - прилагане на чакащите
+ * трансформации и запис - и задачите се изпълняват паралелно от ограничен брой
+ * нишки. Така докато едно изображение се записва, следващото вече се
+ * трансформира, а временната памет расте с броя нишки, а не с броя изображения.
+ * Изображения с еднакво име (например от различни директории) се записват в
+ * един и същ файл, затова те се обработват едно след друго в реда от сесията.
+ * </p>
+ * <p>
+ * С аргумент {@code stream} растерът, който още е във файла, се записва ред
+ * по ред, без да се чете целият в паметта.
+ * </p>
  */
 public class SaveCommand implements Command {
+    private static final int MAX_PARALLEL_SAVES = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Аргументът за поточен запис.
+     */
+    static final String STREAM = "stream";
+
     private final SessionManager sessionManager;
 
     /**
@@ -26,92 +52,129 @@ public class SaveCommand implements Command {
 
     /**
      * Изпълнява командата за записване на изображенията.
-     * @param args аргументи (не се използват)
-     * @throws EditorException при липса на изображения или грешка при запис
+     * @param args незадължително кодиране ("ascii" или "raw"), без което всяко
+     *             изображение се записва с кодирането, с което е заредено, и
+     *             незадължително "stream" за поточен запис
+     * @throws EditorException при невалидни аргументи, липса на изображения или грешка при запис
      */
     @Override
     public void execute(String[] args) throws EditorException {
-        if (args.length > 0) {
-            throw new EditorException("Save command does not accept any arguments");
+        boolean streaming = args.length > 0 && args[args.length - 1].equalsIgnoreCase(STREAM);
+        int argCount = streaming ? args.length - 1 : args.length;
+        if (argCount > 1) {
+            throw new EditorException("Save command accepts at most an encoding and \"" + STREAM + "\". " +
+                    "Usage: save [ascii|raw] [stream]");
         }
 
+        Encoding encoding = argCount == 1 ? Encoding.fromName(args[0]) : null;
+
         Session session = sessionManager.getValidatedActiveSession();
 
         if (session.getImages().isEmpty()) {
             throw new EditorException("No images to save in current session");
         }
 
-        applyPendingTransformations(session);
-        saveAllImages(session);
+        List<String> transformations = session.getTransformations();
+        if (!transformations.isEmpty()) {
+            System.out.println("Applying pending transformations to all images...");
+        }
+
+        saveAllImages(session.getImages(), transformations, encoding, streaming);
         session.getTransformations().clear();
 
         System.out.println("Saved all images successfully!");
     }
 
     /**
-     * Прилага всички чакащи трансформации върху изображенията.
-     * @param session сесията с изображенията
-     * @throws EditorException при непозната трансформация
+     * Трансформира и записва всички изображения паралелно.
+     * Грешка при едно изображение не спира обработката на останалите.
+     * @param images изображенията от сесията
+     * @param transformations чакащите трансформации
+     * @param encoding кодирането за запис или null за кодирането на всяко изображение
+     * @param streaming дали записът е поточен
+     * @throws EditorException със списък на изображенията, които не са записани
      */
-    private void applyPendingTransformations(Session session) throws EditorException {
-        List<String> transformations = session.getTransformations();
-
-        if (transformations.isEmpty()) {
-            return;
+    private void saveAllImages(List<Image> images, List<String> transformations,
+                               Encoding encoding, boolean streaming) throws EditorException {
+        Collection<List<Integer>> groups = groupByOutputFile(images);
+        Throwable[] errors = new Throwable[images.size()];
+        try (ExecutorService executor = Executors.newFixedThreadPool(Math.min(groups.size(), MAX_PARALLEL_SAVES))) {
+            for (List<Integer> group : groups) {
+                executor.execute(() -> {
+                    for (int i : group) {
+                        try {
+                            transformAndSave(images.get(i), transformations, encoding, streaming);
+                        } catch (Throwable e) {
+                            errors[i] = e;
+                        }
+                    }
+                });
+            }
         }
 
-        System.out.println("Applying pending transformations to all images...");
+        List<String> errorMessages = new ArrayList<>();
+        for (int i = 0; i < images.size(); i++) {
+            Throwable error = errors[i];
+            if (error == null) {
+                continue;
+            }
 
-        for (Image image : session.getImages()) {
-            for (String transformation : transformations) {
-                applyTransformationToImage(image, transformation);
+            if (error instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            if (error instanceof Error fatal) {
+                throw fatal;
             }
+            errorMessages.add(images.get(i).getFile().getName() + " (" + error.getMessage() + ")");
+        }
+
+        if (!errorMessages.isEmpty()) {
+            throw new EditorException("Failed to save " + errorMessages.size() + " of " + images.size() +
+                    " image(s): " + String.join(", ", errorMessages));
         }
     }
 
     /**
-     * Прилага конкретна трансформация върху изображение.
-     * @param image изображението за трансформация
-     * @param transformation името на трансформацията
-     * @throws EditorException при непозната трансформация
+     * Разделя изображенията на групи с еднакъв изходен файл.
+     * @param images изображенията от сесията
+     * @return индексите на изображенията във всяка група, в реда от сесията
      */
-    private void applyTransformationToImage(Image image, String transformation) throws EditorException {
-        switch (transformation) {
-            case "grayscale":
-                image.applyGrayscale();
-                break;
-            case "monochrome":
-                image.applyMonochrome();
-                break;
-            case "negative":
-                image.applyNegative();
-                break;
-            case "rotate_left":
-                image.applyRotation("left");
-                break;
-            case "rotate_right":
-                image.applyRotation("right");
-                break;
-            default:
-                throw new EditorException("Unknown transformation: " + transformation);
+    private Collection<List<Integer>> groupByOutputFile(List<Image> images) {
+        Map<File, List<Integer>> groups = new LinkedHashMap<>();
+        for (int i = 0; i < images.size(); i++) {
+            groups.computeIfAbsent(outputFile(images.get(i)), file -> new ArrayList<>()).add(i);
         }
+        return groups.values();
     }
 
     /**
-     * Записва всички изображения от сесията.
-     * @param session сесията с изображенията
-     * @throws EditorException при грешка при запис на файл
+     * Връща файла, в който се записва изображението.
+     * @param image изображението
+     * @return файлът в директорията за нови изображения
      */
-    private void saveAllImages(Session session) throws EditorException {
-        File outputDir = new File("target_images/new images/");
-
-        for (Image image : session.getImages()) {
-            try {
-                File outputFile = new File(outputDir, image.getFile().getName());
-                image.save(outputFile);
-            } catch (IOException e) {
-                throw new EditorException("Failed to save image: " + image.getFile().getName());
-            }
+    private File outputFile(Image image) {
+        return new File("target_images/new images/", image.getFile().getName());
+    }
+
+    /**
+     * Прилага чакащите трансформации върху изображение и го записва.
+     * @param image изображението
+     * @param transformations чакащите трансформации
+     * @param encoding кодирането за запис или null за кодирането на изображението
+     * @param streaming дали записът е поточен
+     * @throws EditorException при непозната трансформация или грешка при запис на файла
+     */
+    private void transformAndSave(Image image, List<String> transformations,
+                                  Encoding encoding, boolean streaming) throws EditorException {
+        if (!transformations.isEmpty()) {
+            image.applyTransformations(transformations);
+        }
+
+        File outputFile = outputFile(image);
+        try {
+            image.save(outputFile, encoding == null ? image.getEncoding() : encoding, streaming);
+        } catch (IOException e) {
+            throw new EditorException("cannot write " + outputFile.getPath());
         }
     }
-}
\ No newline at end of file
+}
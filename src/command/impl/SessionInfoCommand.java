@@ -3,10 +3,13 @@ package command.impl;
 import command.Command;
 import exception.EditorException;
 import image.Image;
+import image.transformation.TransformationPlan;
 import session.Session;
 import session.SessionManager;
 
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
 
 /**
  * Команда за показване на информация за текущата сесия.
@@ -40,8 +43,9 @@ public class SessionInfoCommand implements Command {
     /**
      * Показва информация за сесията.
      * @param session сесията за показване
+     * @throws EditorException при непозната чакаща трансформация
      */
-    private void displaySessionInfo(Session session) {
+    private void displaySessionInfo(Session session) throws EditorException {
         System.out.println("=== Session Information ===");
         System.out.println("Session ID: " + session.getId());
 
@@ -63,8 +67,29 @@ public class SessionInfoCommand implements Command {
         } else {
             System.out.println("Pending transformations (" + transformations.size() + "): " +
                     String.join(", ", transformations));
+            displayOptimizedPlans(images, transformations);
         }
 
         System.out.println("===========================");
     }
+
+    /**
+     * Показва оптимизирания план, който реално ще се изпълни при запис,
+     * за всеки формат в сесията.
+     * @param images изображенията в сесията
+     * @param transformations чакащите трансформации
+     * @throws EditorException при непозната трансформация
+     */
+    private void displayOptimizedPlans(List<Image> images, List<String> transformations) throws EditorException {
+        Set<String> formats = new LinkedHashSet<>();
+        for (Image image : images) {
+            formats.add(image.getFormat());
+        }
+
+        for (String format : formats) {
+            List<String> steps = TransformationPlan.compile(transformations, format).getSteps();
+            System.out.println("Optimized plan for " + format.toUpperCase() + ": " +
+                    (steps.isEmpty() ? "None" : String.join(", ", steps)));
+        }
+    }
 }
\ No newline at end of file
@@ -0,0 +1,38 @@
+package command.impl;
+
+import command.Command;
+import exception.EditorException;
+import session.SessionManager;
+
+/**
+ * Команда за транспониране на изображенията в текущата сесия
+ * (огледално обръщане спрямо главния диагонал).
+ */
+public class TransposeCommand implements Command {
+    private final SessionManager sessionManager;
+
+    /**
+     * Конструктор за TransposeCommand.
+     * @param sessionManager мениджър на сесии
+     */
+    public TransposeCommand(SessionManager sessionManager) {
+        this.sessionManager = sessionManager;
+    }
+
+    /**
+     * Изпълнява командата за добавяне на транспониране.
+     * Не приема аргументи.
+     * @param args аргументи на командата
+     * @throws EditorException ако са подадени аргументи
+     *                         или няма активна сесия
+     */
+    @Override
+    public void execute(String[] args) throws EditorException {
+        if (args.length > 0) {
+            throw new EditorException("Transpose command does not accept any arguments");
+        }
+
+        sessionManager.getValidatedActiveSession().addTransformation("transpose");
+        System.out.println("Queued transpose transformation for all images");
+    }
+}
@@ -1,9 +1,12 @@
 package image;
 
 import exception.EditorException;
+import image.io.Encoding;
+import image.io.NetpbmTokenizer;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.List;
 
 /**
  * Интерфейс, представляващ изображение.
@@ -20,7 +23,18 @@ public interface Image {
     void load() throws IOException, EditorException;
 
     /**
-     * Записва изображението във файл.
+     * Зарежда изображението от вече отворен файл, от който е прочетен
+     * само magic number. Така файлът не се отваря повторно.
+     *
+     * @param tokenizer токенизатор, позициониран след magic number
+     * @param magicNumber прочетеният magic number
+     * @throws IOException ако възникне проблем при четене на файла
+     * @throws EditorException ако изображението е невалидно или формата не се поддържа
+     */
+    void load(NetpbmTokenizer tokenizer, String magicNumber) throws IOException, EditorException;
+
+    /**
+     * Записва изображението във файл със същото кодиране, с което е заредено.
      *
      * @param outputFile файлът, в който да се запише изображението
      * @throws IOException ако възникне проблем при запис
@@ -28,7 +42,36 @@ public interface Image {
     void save(File outputFile) throws IOException;
 
     /**
-     * Създава копие на изображението.
+     * Записва изображението във файл с избрано кодиране.
+     *
+     * @param outputFile файлът, в който да се запише изображението
+     * @param encoding текстово (P1-P3) или сурово (P4-P6) кодиране
+     * @throws IOException ако възникне проблем при запис
+     */
+    void save(File outputFile, Encoding encoding) throws IOException;
+
+    /**
+     * Записва изображението във файл с избрано кодиране. При поточен запис
+     * растерът, който още не е прочетен от файла, минава през паметта ред по
+     * ред и остава във файла. Иначе първо се прочита целият.
+     *
+     * @param outputFile файлът, в който да се запише изображението
+     * @param encoding текстово (P1-P3) или сурово (P4-P6) кодиране
+     * @param streaming дали растерът да се записва поточно
+     * @throws IOException ако възникне проблем при запис
+     */
+    void save(File outputFile, Encoding encoding, boolean streaming) throws IOException;
+
+    /**
+     * Връща кодирането, с което изображението е заредено или последно записано.
+     *
+     * @return кодирането на изображението
+     */
+    Encoding getEncoding();
+
+    /**
+     * Създава копие на изображението. Копието споделя пикселите с оригинала,
+     * докато някое от двете не ги промени.
      *
      * @return нов обект Image, копие на текущото изображение
      */
@@ -42,6 +85,16 @@ public interface Image {
      */
     void applyTransformation(String transformation) throws EditorException;
 
+    /**
+     * Прилага поредица от трансформации. Трансформациите на пиксели се
+     * изпълняват заедно с едно обхождане на изображението, след което
+     * се прилагат завъртанията.
+     *
+     * @param transformations имената на трансформациите в реда на задаване
+     * @throws EditorException ако някоя трансформация не е валидна
+     */
+    void applyTransformations(List<String> transformations) throws EditorException;
+
     /**
      * Връща формата на изображението (например "ppm", "pgm", "pbm").
      *
@@ -86,10 +139,23 @@ public interface Image {
     void applyNegative();
 
     /**
-     * Завърта изображението в посока "clockwise" или "counterclockwise".
+     * Завърта изображението наляво ("left"), надясно ("right") или на 180 градуса ("180").
      *
      * @param direction посоката на завъртане
      * @throws EditorException ако посоката не е валидна
      */
     void applyRotation(String direction) throws EditorException;
+
+    /**
+     * Обръща изображението огледално по хоризонтала ("horizontal") или вертикала ("vertical").
+     *
+     * @param axis посоката на обръщане
+     * @throws EditorException ако посоката не е валидна
+     */
+    void applyFlip(String axis) throws EditorException;
+
+    /**
+     * Транспонира изображението (огледално обръщане спрямо главния диагонал).
+     */
+    void applyTranspose();
 }
@@ -1,19 +1,47 @@
 package image;
 import exception.EditorException;
 import image.impl.*;
-import java.io.BufferedReader;
+import image.io.NetpbmTokenizer;
+import image.storage.SampleStorage;
+
 import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.BiFunction;
+
 /**
  * Клас за зареждане на изображения от файлове.
- * Поддържа формати PBM (P1), PGM (P2) и PPM (P3).
- * Проверява валидността на файла и извлича "magic number", за да определи типа на изображението.
+ * Поддържа формати PBM (P1, P4), PGM (P2, P5) и PPM (P3, P6) - текстови и сурови.
+ * Всеки файл се отваря само веднъж: "magic number" се прочита от първите байтове,
+ * а същият отворен файл се подава на съответния формат, регистриран по magic number.
  */
 public class ImageLoader {
+    private final Map<String, BiFunction<File, SampleStorage, Image>> formats;
+
+    /**
+     * Конструктор за ImageLoader.
+     */
+    public ImageLoader() {
+        this.formats = new HashMap<>();
+        initializeFormats();
+    }
+
+    /**
+     * Регистрира поддържаните формати в колекцията {@code formats}.
+     */
+    private void initializeFormats() {
+        formats.put("P1", PBMImage::new);
+        formats.put("P4", PBMImage::new);
+        formats.put("P2", PGMImage::new);
+        formats.put("P5", PGMImage::new);
+        formats.put("P3", PPMImage::new);
+        formats.put("P6", PPMImage::new);
+    }
+
     /**
      * Зарежда изображение от подадения файл.
-     * Поддържат се PBM, PGM и PPM формати.
+     * Поддържат се PBM, PGM и PPM формати в текстов и в суров (двоичен) вид.
      *
      * @param file файлът, от който да се зареди изображението
      * @return зареденото изображение като обект Image
@@ -21,29 +49,34 @@ public class ImageLoader {
      * @throws EditorException ако файлът е невалиден или форматът не се поддържа
      */
     public Image loadImage(File file) throws IOException, EditorException {
-        validateFile(file);
-
-        String magicNumber = extractMagicNumber(file);
-
-        switch (magicNumber) {
-            case "P1":
-                PBMImage pbmImage = new PBMImage(file);
-                pbmImage.load();
-                return pbmImage;
+        return loadImage(file, SampleStorage.HEAP);
+    }
 
-            case "P2":
-                PGMImage pgmImage = new PGMImage(file);
-                pgmImage.load();
-                return pgmImage;
+    /**
+     * Зарежда изображение от подадения файл, като пикселите му се създават
+     * в {@code storage}.
+     *
+     * @param file файлът, от който да се зареди изображението
+     * @param storage хранилището на сесията, в която ще е изображението
+     * @return зареденото изображение като обект Image
+     * @throws IOException ако възникне проблем при четене на файла
+     * @throws EditorException ако файлът е невалиден или форматът не се поддържа
+     */
+    public Image loadImage(File file, SampleStorage storage) throws IOException, EditorException {
+        validateFile(file);
 
-            case "P3":
-                PPMImage ppmImage = new PPMImage(file);
-                ppmImage.load();
-                return ppmImage;
+        try (NetpbmTokenizer tokenizer = NetpbmTokenizer.open(file)) {
+            String magicNumber = tokenizer.nextMagicNumber();
 
-            default:
+            BiFunction<File, SampleStorage, Image> format = formats.get(magicNumber);
+            if (format == null) {
                 throw new EditorException("Unsupported file format. Magic number: " + magicNumber +
-                        ". Supported: P1 (PBM), P2 (PGM), P3 (PPM)");
+                        ". Supported: P1/P4 (PBM), P2/P5 (PGM), P3/P6 (PPM)");
+            }
+
+            Image image = format.apply(file, storage);
+            image.load(tokenizer, magicNumber);
+            return image;
         }
     }
     /**
@@ -69,47 +102,4 @@ public class ImageLoader {
             throw new EditorException("Cannot read file: " + file.getAbsolutePath());
         }
     }
-    /**
-     * Извлича "magic number" от файла, който определя формата на изображението.
-     * Игнорира празни редове и коментари.
-     *
-     * @param file файлът, от който се извлича magic number
-     * @return magic number като низ ("P1", "P2" или "P3")
-     * @throws IOException ако възникне проблем при четене на файла
-     * @throws EditorException ако не е намерен magic number
-     */
-    private String extractMagicNumber(File file) throws IOException, EditorException {
-        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                line = line.trim();
-
-                if (line.isEmpty() || line.startsWith("#")) {
-                    continue;
-                }
-
-                String[] tokens = line.split("\\s+");
-                if (tokens.length > 0) {
-                    return tokens[0];
-                }
-            }
-        }
-
-        throw new EditorException("No magic number found in file: " + file.getName());
-    }
-    /**
-     * Проверява дали файлът е поддържан формат.
-     *
-     * @param file файлът за проверка
-     * @return true, ако файлът е PBM, PGM или PPM; false в противен случай
-     */
-    public static boolean isSupportedFormat(File file) {
-        try {
-            ImageLoader loader = new ImageLoader();
-            String magicNumber = loader.extractMagicNumber(file);
-            return magicNumber.equals("P1") || magicNumber.equals("P2") || magicNumber.equals("P3");
-        } catch (Exception e) {
-            return false;
-        }
-    }
 }
\ No newline at end of file
@@ -1,29 +1,59 @@
 package image.impl;
 
 import image.Image;
+import image.io.Encoding;
+import image.io.NetpbmRaster;
+import image.io.NetpbmTokenizer;
+import image.io.NetpbmWriter;
+import image.storage.SampleBuffer;
+import image.storage.SampleStorage;
+import image.transformation.Orientation;
+import image.transformation.PointOperation;
+import image.transformation.TransformationPlan;
 import exception.EditorException;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.PrintWriter;
-import java.util.Scanner;
+import java.util.List;
 
 /**
  * PBM изображение (Portable BitMap).
+ * <p>
+ * Пикселите се пазят ред по ред в битов {@link SampleBuffer} - по 64 пиксела в
+ * {@code long}. Пиксел (x, y) е бит {@code y * width + x}; вдигнат бит е черен пиксел.
+ * </p>
+ * <p>
+ * Завъртанията и огледалните обръщания не местят пикселите: те само променят
+ * {@link Orientation}, през която пикселите се четат при запис. Пикселите се
+ * пренареждат едва когато някоя операция се нуждае от реалното им подреждане.
+ * </p>
  */
 public class PBMImage implements Image {
     private File file;
+    private final SampleStorage storage;
     private int width;
     private int height;
-    private boolean[][] pixels;
+    private SampleBuffer pixels;
+    private Orientation orientation = Orientation.IDENTITY;
+    private Encoding encoding = Encoding.ASCII;
     private final String format = "pbm";
 
     /**
-     * Конструктор за PBM изображение.
+     * Конструктор за PBM изображение с пиксели в heap-а.
      * @param file файлът на изображението
      */
     public PBMImage(File file) {
+        this(file, SampleStorage.HEAP);
+    }
+
+    /**
+     * Конструктор за PBM изображение.
+     * @param file файлът на изображението
+     * @param storage хранилището, в което се създават пикселите му
+     */
+    public PBMImage(File file, SampleStorage storage) {
         this.file = file;
+        this.storage = storage;
     }
 
     /**
@@ -33,52 +63,82 @@ public class PBMImage implements Image {
      */
     @Override
     public void load() throws IOException, EditorException {
-        try (Scanner scanner = new Scanner(file)) {
-            String magicNumber = scanner.nextLine().trim();
-            while (magicNumber.startsWith("#")) magicNumber = scanner.nextLine().trim();
-            if (!magicNumber.equals("P1")) throw new EditorException("Invalid PBM magic number");
-
-            do {
-                if (scanner.hasNextInt()) {
-                    width = scanner.nextInt();
-                    height = scanner.nextInt();
-                } else {
-                    scanner.nextLine();
-                }
-            } while (width <= 0 || height <= 0);
-
-            pixels = new boolean[height][width];
-
-            for (int i = 0; i < height; i++) {
-                for (int j = 0; j < width; j++) {
-                    if (!scanner.hasNextInt()) throw new EditorException("Unexpected end of PBM file");
-                    int val = scanner.nextInt();
-                    if (val != 0 && val != 1) throw new EditorException("Invalid pixel value: " + val);
-                    pixels[i][j] = (val == 1);
-                }
-            }
+        try (NetpbmTokenizer tokenizer = NetpbmTokenizer.open(file)) {
+            load(tokenizer, tokenizer.nextMagicNumber());
         }
+    }
+
+    /**
+     * Зарежда PBM изображение от вече отворен файл.
+     * @param tokenizer токенизатор, позициониран след magic number
+     * @param magicNumber прочетеният magic number
+     * @throws IOException при грешка при четене на файла
+     * @throws EditorException при невалиден формат или данни
+     */
+    @Override
+    public void load(NetpbmTokenizer tokenizer, String magicNumber) throws IOException, EditorException {
+        if (!magicNumber.equals("P1") && !magicNumber.equals("P4"))
+            throw new EditorException("Invalid PBM magic number");
+        encoding = magicNumber.equals("P4") ? Encoding.RAW : Encoding.ASCII;
+        orientation = Orientation.IDENTITY;
+
+        width = tokenizer.nextInt();
+        height = tokenizer.nextInt();
+        if (width <= 0 || height <= 0) throw new EditorException("Invalid image dimensions");
+
+        pixels = new NetpbmRaster(magicNumber, width, height, 1, 1).load(tokenizer, file, storage);
         System.out.println("Loaded PBM image: " + width + "x" + height);
     }
 
     /**
-     * Записва PBM изображение във файл.
+     * Записва PBM изображение във файл със същото кодиране, с което е заредено.
      * @param outputFile файлът за запис
      * @throws IOException при грешка при запис на файла
      */
     @Override
     public void save(File outputFile) throws IOException {
-        try (PrintWriter writer = new PrintWriter(outputFile)) {
-            writer.println("P1");
-            writer.println(width + " " + height);
-            for (boolean[] row : pixels) {
-                for (boolean val : row) {
-                    writer.print(val ? "1 " : "0 ");
-                }
-                writer.println();
+        save(outputFile, encoding);
+    }
+
+    /**
+     * Записва PBM изображение във файл като текстов (P1) или суров (P4) PBM.
+     * @param outputFile файлът за запис
+     * @param encoding кодирането на растера
+     * @throws IOException при грешка при запис на файла
+     */
+    @Override
+    public void save(File outputFile, Encoding encoding) throws IOException {
+        save(outputFile, encoding, false);
+    }
+
+    /**
+     * Записва PBM изображение във файл с избрано кодиране, като при поточен
+     * запис растерът, който все още е във файла, се чете ред по ред.
+     * @param outputFile файлът за запис
+     * @param encoding кодирането на растера
+     * @param streaming дали растерът да не се чете целият в паметта
+     * @throws IOException при грешка при запис на файла
+     */
+    @Override
+    public void save(File outputFile, Encoding encoding, boolean streaming) throws IOException {
+        if (!streaming) {
+            pixels = pixels.materialized();
+        }
+        if (encoding == Encoding.RAW) {
+            try (NetpbmWriter writer = NetpbmWriter.open(outputFile)) {
+                writer.writeHeader("P4", getWidth(), getHeight(), 0);
+                orientedPixels().writePackedRows(writer, getWidth());
+                writer.commit();
+            }
+        } else {
+            try (NetpbmWriter writer = NetpbmWriter.open(outputFile)) {
+                writer.writeAsciiHeader("P1", getWidth(), getHeight(), 0);
+                writer.writeAsciiRows(orientedPixels(), getWidth(), true);
+                writer.commit();
             }
         }
         this.file = outputFile;
+        this.encoding = encoding;
         System.out.println("Saved PBM image to: " + outputFile.getName());
     }
 
@@ -88,13 +148,13 @@ public class PBMImage implements Image {
      */
     @Override
     public Image cloneImage() {
-        PBMImage clone = new PBMImage(this.file);
+        PBMImage clone = new PBMImage(this.file, this.storage);
         clone.width = this.width;
         clone.height = this.height;
-        clone.pixels = new boolean[height][width];
-        for (int i = 0; i < height; i++) {
-            System.arraycopy(this.pixels[i], 0, clone.pixels[i], 0, width);
-        }
+        clone.encoding = this.encoding;
+        this.pixels = this.pixels.copyOnWrite();
+        clone.pixels = this.pixels.copy();
+        clone.orientation = this.orientation;
         return clone;
     }
 
@@ -111,10 +171,33 @@ public class PBMImage implements Image {
             case "negative" -> applyNegative();
             case "rotate_left" -> applyRotation("left");
             case "rotate_right" -> applyRotation("right");
+            case "rotate_180" -> applyRotation("180");
+            case "flip_horizontal" -> applyFlip("horizontal");
+            case "flip_vertical" -> applyFlip("vertical");
+            case "transpose" -> applyTranspose();
             default -> throw new EditorException("Unknown transformation: " + transformation);
         }
     }
 
+    /**
+     * Прилага поредица от трансформации по оптимизиран план. Единствената
+     * трансформация на пиксели, която променя PBM изображение, е negative, а
+     * поредните инвертирания се унищожават, затова битовете се инвертират
+     * най-много веднъж, след което следва най-много едно завъртане.
+     * @param transformations имената на трансформациите
+     * @throws EditorException при непозната трансформация
+     */
+    @Override
+    public void applyTransformations(List<String> transformations) throws EditorException {
+        TransformationPlan plan = TransformationPlan.compile(transformations, format);
+        if (plan.getPointOperations().contains(PointOperation.NEGATIVE)) {
+            pixels.invert(1);
+        }
+
+        orientation = orientation.then(plan.getOrientation());
+        System.out.println(plan.isEmpty() ? "No changes to apply" : "Applied " + String.join(", ", plan.getSteps()));
+    }
+
     /**
      * Прилага grayscale трансформация.
      */
@@ -136,44 +219,81 @@ public class PBMImage implements Image {
      */
     @Override
     public void applyNegative() {
-        forEachPixel(val -> !val);
+        pixels.invert(1);
         System.out.println("Applied negative transformation");
     }
 
     /**
      * Завърта изображението.
-     * @param direction посоката на завъртане (left/right)
+     * @param direction посоката на завъртане (left/right/180)
      * @throws EditorException при невалидна посока
      */
     @Override
     public void applyRotation(String direction) throws EditorException {
-        boolean[][] newPixels = new boolean[width][height];
-        for (int i = 0; i < height; i++) {
-            for (int j = 0; j < width; j++) {
-                if (direction.equalsIgnoreCase("left")) {
-                    newPixels[width - 1 - j][i] = pixels[i][j];
-                } else if (direction.equalsIgnoreCase("right")) {
-                    newPixels[j][height - 1 - i] = pixels[i][j];
-                } else {
-                    throw new EditorException("Invalid rotation direction: " + direction + ". Use 'left' or 'right'");
-                }
-            }
+        if (direction.equalsIgnoreCase("left")) {
+            reorient(Orientation.ROTATE_LEFT);
+        } else if (direction.equalsIgnoreCase("right")) {
+            reorient(Orientation.ROTATE_RIGHT);
+        } else if (direction.equals("180")) {
+            reorient(Orientation.ROTATE_180);
+        } else {
+            throw new EditorException("Invalid rotation direction: " + direction + ". Use 'left', 'right' or '180'");
         }
-        pixels = newPixels;
-        int temp = width;
-        width = height;
-        height = temp;
         System.out.println("Applied " + direction + " rotation");
     }
 
-    private interface PixelFunction {
-        boolean apply(boolean val);
+    /**
+     * Обръща изображението огледално.
+     * @param axis посоката на обръщане (horizontal/vertical)
+     * @throws EditorException при невалидна посока
+     */
+    @Override
+    public void applyFlip(String axis) throws EditorException {
+        if (axis.equals("horizontal")) reorient(Orientation.FLIP_HORIZONTAL);
+        else if (axis.equals("vertical")) reorient(Orientation.FLIP_VERTICAL);
+        else throw new EditorException("Invalid flip direction: " + axis);
+        System.out.println("Applied " + axis + " flip");
     }
 
-    private void forEachPixel(PixelFunction f) {
-        for (int i = 0; i < height; i++)
-            for (int j = 0; j < width; j++)
-                pixels[i][j] = f.apply(pixels[i][j]);
+    /**
+     * Транспонира изображението.
+     */
+    @Override
+    public void applyTranspose() {
+        reorient(Orientation.TRANSPOSE);
+        System.out.println("Applied transpose");
+    }
+
+    /**
+     * Добавя завъртане или обръщане към ориентацията, без да мести пиксели.
+     * @param next ориентацията, която се прилага след текущата
+     */
+    private void reorient(Orientation next) {
+        orientation = orientation.then(next);
+    }
+
+    /**
+     * Връща пикселите в текущата ориентация - самия буфер или изглед към него.
+     * @return семплите ред по ред в размерите {@link #getWidth()} x {@link #getHeight()}
+     */
+    private SampleBuffer orientedPixels() {
+        return orientation.view(pixels, width, height, 1);
+    }
+
+    /**
+     * Пренарежда пикселите в текущата ориентация (на място, когато е възможно).
+     */
+    private void materialize() {
+        if (orientation == Orientation.IDENTITY) {
+            return;
+        }
+        pixels = orientation.apply(pixels, width, height, 1);
+        if (orientation.swapsDimensions()) {
+            int temp = width;
+            width = height;
+            height = temp;
+        }
+        orientation = Orientation.IDENTITY;
     }
 
     /**
@@ -186,13 +306,13 @@ public class PBMImage implements Image {
      * Връща ширината на изображението.
      * @return ширината на изображението
      */
-    @Override public int getWidth() { return width; }
+    @Override public int getWidth() { return orientation.swapsDimensions() ? height : width; }
 
     /**
      * Връща височината на изображението.
      * @return височината на изображението
      */
-    @Override public int getHeight() { return height; }
+    @Override public int getHeight() { return orientation.swapsDimensions() ? width : height; }
 
     /**
      * Връща файла на изображението.
@@ -201,28 +321,29 @@ public class PBMImage implements Image {
     @Override public File getFile() { return file; }
 
     /**
-     * Връща пикселите на изображението.
-     * @return масив от пиксели
+     * Връща кодирането на изображението.
+     * @return кодирането на изображението
      */
-    public boolean[][] getPixels() { return pixels; }
+    @Override public Encoding getEncoding() { return encoding; }
 
     /**
-     * Задава пикселите на изображението.
-     * @param pixels новите пиксели
+     * Връща пикселите на изображението.
+     * @return битовият буфер с пикселите, ред по ред
      */
-    public void setPixels(boolean[][] pixels) {
-        this.pixels = pixels;
-        this.height = pixels.length;
-        this.width = pixels[0].length;
+    public SampleBuffer getPixels() {
+        materialize();
+        return pixels;
     }
 
     /**
-     * Задава размерите на изображението.
+     * Задава размерите на изображението и заделя нов (бял) буфер от пиксели.
      * @param width новата ширина
      * @param height новата височина
      */
     public void setDimensions(int width, int height) {
         this.width = width;
         this.height = height;
+        this.orientation = Orientation.IDENTITY;
+        this.pixels = storage.allocate(width, height, 1, 1);
     }
 }
\ No newline at end of file
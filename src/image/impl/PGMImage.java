@@ -1,30 +1,61 @@
 package image.impl;
 
 import image.Image;
+import image.io.Encoding;
+import image.io.NetpbmRaster;
+import image.io.NetpbmTokenizer;
+import image.io.NetpbmWriter;
+import image.storage.SampleBuffer;
+import image.storage.SampleStorage;
+import image.transformation.LookupTable;
+import image.transformation.Orientation;
+import image.transformation.PointOperation;
+import image.transformation.TransformationPlan;
 import exception.EditorException;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.PrintWriter;
-import java.util.Scanner;
+import java.util.List;
 
 /**
  * PGM изображение (Portable GrayMap).
+ * <p>
+ * Пикселите се пазят ред по ред в {@link SampleBuffer}, чиято ширина
+ * (1, 8 или 16 бита на семпъл) се избира според maxColorValue.
+ * </p>
+ * <p>
+ * Завъртанията и огледалните обръщания не местят пикселите: те само променят
+ * {@link Orientation}, през която пикселите се четат при запис. Пикселите се
+ * пренареждат едва когато някоя операция се нуждае от реалното им подреждане.
+ * </p>
  */
 public class PGMImage implements Image {
     private File file;
+    private final SampleStorage storage;
     private int width;
     private int height;
-    private int[][] pixels;
+    private SampleBuffer pixels;
+    private Orientation orientation = Orientation.IDENTITY;
     private int maxColorValue;
+    private Encoding encoding = Encoding.ASCII;
     private final String format = "pgm";
 
     /**
-     * Конструктор за PGM изображение.
+     * Конструктор за PGM изображение с пиксели в heap-а.
      * @param file файлът на изображението
      */
     public PGMImage(File file) {
+        this(file, SampleStorage.HEAP);
+    }
+
+    /**
+     * Конструктор за PGM изображение.
+     * @param file файлът на изображението
+     * @param storage хранилището, в което се създават пикселите му
+     */
+    public PGMImage(File file, SampleStorage storage) {
         this.file = file;
+        this.storage = storage;
     }
 
     /**
@@ -34,56 +65,86 @@ public class PGMImage implements Image {
      */
     @Override
     public void load() throws IOException, EditorException {
-        try (Scanner scanner = new Scanner(file)) {
-            String magicNumber = scanner.nextLine().trim();
-            while (magicNumber.startsWith("#")) magicNumber = scanner.nextLine().trim();
-            if (!magicNumber.equals("P2")) throw new EditorException("Invalid PGM magic number");
-
-            do {
-                if (scanner.hasNextInt()) {
-                    width = scanner.nextInt();
-                    height = scanner.nextInt();
-                } else {
-                    scanner.nextLine();
-                }
-            } while (width <= 0 || height <= 0);
-
-            maxColorValue = scanner.nextInt();
-            if (maxColorValue <= 0) throw new EditorException("Invalid max color value");
-
-            pixels = new int[height][width];
-
-            for (int i = 0; i < height; i++) {
-                for (int j = 0; j < width; j++) {
-                    int val = scanner.nextInt();
-                    validatePixelValue(val);
-                    pixels[i][j] = val;
-                }
-            }
+        try (NetpbmTokenizer tokenizer = NetpbmTokenizer.open(file)) {
+            load(tokenizer, tokenizer.nextMagicNumber());
         }
+    }
+
+    /**
+     * Зарежда PGM изображение от вече отворен файл.
+     * @param tokenizer токенизатор, позициониран след magic number
+     * @param magicNumber прочетеният magic number
+     * @throws IOException при грешка при четене на файла
+     * @throws EditorException при невалиден формат или данни
+     */
+    @Override
+    public void load(NetpbmTokenizer tokenizer, String magicNumber) throws IOException, EditorException {
+        if (!magicNumber.equals("P2") && !magicNumber.equals("P5"))
+            throw new EditorException("Invalid PGM magic number");
+        encoding = magicNumber.equals("P5") ? Encoding.RAW : Encoding.ASCII;
+        orientation = Orientation.IDENTITY;
+
+        width = tokenizer.nextInt();
+        height = tokenizer.nextInt();
+        if (width <= 0 || height <= 0) throw new EditorException("Invalid image dimensions");
+
+        maxColorValue = tokenizer.nextInt();
+        if (maxColorValue <= 0 || maxColorValue > 65535)
+            throw new EditorException("Invalid max color value");
+
+        pixels = new NetpbmRaster(magicNumber, width, height, 1, maxColorValue).load(tokenizer, file, storage);
         System.out.println("Loaded PGM image: " + width + "x" + height);
     }
 
     /**
-     * Записва PGM изображение във файл.
+     * Записва PGM изображение във файл със същото кодиране, с което е заредено.
      * @param outputFile файлът за запис
      * @throws IOException при грешка при запис на файла
      */
     @Override
     public void save(File outputFile) throws IOException {
-        try (PrintWriter writer = new PrintWriter(outputFile)) {
-            writer.println("P2");
-            writer.println(width + " " + height);
-            writer.println(maxColorValue);
-
-            for (int[] row : pixels) {
-                for (int val : row) {
-                    writer.print(val + " ");
-                }
-                writer.println();
+        save(outputFile, encoding);
+    }
+
+    /**
+     * Записва PGM изображение във файл като текстов (P2) или суров (P5) PGM.
+     * @param outputFile файлът за запис
+     * @param encoding кодирането на растера
+     * @throws IOException при грешка при запис на файла
+     */
+    @Override
+    public void save(File outputFile, Encoding encoding) throws IOException {
+        save(outputFile, encoding, false);
+    }
+
+    /**
+     * Записва PGM изображение във файл с избрано кодиране, като при поточен
+     * запис растерът, който все още е във файла, се чете ред по ред.
+     * @param outputFile файлът за запис
+     * @param encoding кодирането на растера
+     * @param streaming дали растерът да не се чете целият в паметта
+     * @throws IOException при грешка при запис на файла
+     */
+    @Override
+    public void save(File outputFile, Encoding encoding, boolean streaming) throws IOException {
+        if (!streaming) {
+            pixels = pixels.materialized();
+        }
+        if (encoding == Encoding.RAW) {
+            try (NetpbmWriter writer = NetpbmWriter.open(outputFile)) {
+                writer.writeHeader("P5", getWidth(), getHeight(), maxColorValue);
+                orientedPixels().writeSamples(writer, maxColorValue > 0xFF ? 2 : 1);
+                writer.commit();
+            }
+        } else {
+            try (NetpbmWriter writer = NetpbmWriter.open(outputFile)) {
+                writer.writeAsciiHeader("P2", getWidth(), getHeight(), maxColorValue);
+                writer.writeAsciiRows(orientedPixels(), getWidth(), true);
+                writer.commit();
             }
         }
         this.file = outputFile;
+        this.encoding = encoding;
         System.out.println("Saved PGM image to: " + outputFile.getName());
     }
 
@@ -93,16 +154,14 @@ public class PGMImage implements Image {
      */
     @Override
     public Image cloneImage() {
-        PGMImage clone = new PGMImage(this.file);
+        PGMImage clone = new PGMImage(this.file, this.storage);
         clone.width = this.width;
         clone.height = this.height;
+        clone.encoding = this.encoding;
         clone.maxColorValue = this.maxColorValue;
-        clone.pixels = new int[height][width];
-
-        for (int i = 0; i < height; i++) {
-            System.arraycopy(this.pixels[i], 0, clone.pixels[i], 0, width);
-        }
-
+        this.pixels = this.pixels.copyOnWrite();
+        clone.pixels = this.pixels.copy();
+        clone.orientation = this.orientation;
         return clone;
     }
 
@@ -119,17 +178,42 @@ public class PGMImage implements Image {
             case "negative" -> applyNegative();
             case "rotate_left" -> applyRotation("left");
             case "rotate_right" -> applyRotation("right");
+            case "rotate_180" -> applyRotation("180");
+            case "flip_horizontal" -> applyFlip("horizontal");
+            case "flip_vertical" -> applyFlip("vertical");
+            case "transpose" -> applyTranspose();
             default -> throw new EditorException("Unknown transformation: " + transformation);
         }
     }
 
+    /**
+     * Прилага поредица от трансформации по оптимизиран план: трансформациите на
+     * пиксели се събират в една таблица, която се прилага с едно обхождане,
+     * след което следва най-много едно завъртане.
+     * @param transformations имената на трансформациите
+     * @throws EditorException при непозната трансформация
+     */
+    @Override
+    public void applyTransformations(List<String> transformations) throws EditorException {
+        TransformationPlan plan = TransformationPlan.compile(transformations, format);
+        LookupTable table = LookupTable.identity(maxColorValue);
+        for (PointOperation operation : plan.getPointOperations()) {
+            table = table.andThen(operation.onGray(maxColorValue));
+        }
+        if (!table.isIdentity()) {
+            pixels.applyLookupTable(table.values());
+        }
+
+        orientation = orientation.then(plan.getOrientation());
+        System.out.println(plan.isEmpty() ? "No changes to apply" : "Applied " + String.join(", ", plan.getSteps()));
+    }
+
     /**
      * Прилага monochrome трансформация.
      */
     @Override
     public void applyMonochrome() {
-        int threshold = maxColorValue / 2;
-        forEachPixel(val -> val > threshold ? maxColorValue : 0);
+        pixels.threshold(maxColorValue / 2, maxColorValue);
         System.out.println("Applied monochrome transformation");
     }
 
@@ -138,57 +222,81 @@ public class PGMImage implements Image {
      */
     @Override
     public void applyNegative() {
-        forEachPixel(val -> maxColorValue - val);
+        pixels.invert(maxColorValue);
         System.out.println("Applied negative transformation");
     }
 
     /**
      * Завърта изображението.
-     * @param direction посоката на завъртане (left/right)
+     * @param direction посоката на завъртане (left/right/180)
      * @throws EditorException при невалидна посока
      */
     @Override
     public void applyRotation(String direction) throws EditorException {
-        int[][] newPixels = new int[width][height];
-
-        for (int i = 0; i < height; i++) {
-            for (int j = 0; j < width; j++) {
-                if (direction.equalsIgnoreCase("left")) {
-                    newPixels[width - 1 - j][i] = pixels[i][j];
-                } else if (direction.equalsIgnoreCase("right")) {
-                    newPixels[j][height - 1 - i] = pixels[i][j];
-                } else {
-                    throw new EditorException("Invalid rotation direction: " + direction + ". Use 'left' or 'right'");
-                }
-            }
+        if (direction.equalsIgnoreCase("left")) {
+            reorient(Orientation.ROTATE_LEFT);
+        } else if (direction.equalsIgnoreCase("right")) {
+            reorient(Orientation.ROTATE_RIGHT);
+        } else if (direction.equals("180")) {
+            reorient(Orientation.ROTATE_180);
+        } else {
+            throw new EditorException("Invalid rotation direction: " + direction + ". Use 'left', 'right' or '180'");
         }
+        System.out.println("Applied " + direction + " rotation");
+    }
 
-        pixels = newPixels;
-        int temp = width;
-        width = height;
-        height = temp;
+    /**
+     * Обръща изображението огледално.
+     * @param axis посоката на обръщане (horizontal/vertical)
+     * @throws EditorException при невалидна посока
+     */
+    @Override
+    public void applyFlip(String axis) throws EditorException {
+        if (axis.equals("horizontal")) reorient(Orientation.FLIP_HORIZONTAL);
+        else if (axis.equals("vertical")) reorient(Orientation.FLIP_VERTICAL);
+        else throw new EditorException("Invalid flip direction: " + axis);
+        System.out.println("Applied " + axis + " flip");
+    }
 
-        System.out.println("Applied " + direction + " rotation");
+    /**
+     * Транспонира изображението.
+     */
+    @Override
+    public void applyTranspose() {
+        reorient(Orientation.TRANSPOSE);
+        System.out.println("Applied transpose");
     }
 
     /**
-     * Валидира стойността на пиксела.
-     * @param val стойността за валидиране
-     * @throws EditorException при невалидна стойност
+     * Добавя завъртане или обръщане към ориентацията, без да мести пиксели.
+     * @param next ориентацията, която се прилага след текущата
      */
-    private void validatePixelValue(int val) throws EditorException {
-        if (val < 0 || val > maxColorValue)
-            throw new EditorException("Pixel value out of range: " + val);
+    private void reorient(Orientation next) {
+        orientation = orientation.then(next);
     }
 
-    private interface PixelFunction {
-        int apply(int val);
+    /**
+     * Връща пикселите в текущата ориентация - самия буфер или изглед към него.
+     * @return семплите ред по ред в размерите {@link #getWidth()} x {@link #getHeight()}
+     */
+    private SampleBuffer orientedPixels() {
+        return orientation.view(pixels, width, height, 1);
     }
 
-    private void forEachPixel(PixelFunction f) {
-        for (int i = 0; i < height; i++)
-            for (int j = 0; j < width; j++)
-                pixels[i][j] = f.apply(pixels[i][j]);
+    /**
+     * Пренарежда пикселите в текущата ориентация (на място, когато е възможно).
+     */
+    private void materialize() {
+        if (orientation == Orientation.IDENTITY) {
+            return;
+        }
+        pixels = orientation.apply(pixels, width, height, 1);
+        if (orientation.swapsDimensions()) {
+            int temp = width;
+            width = height;
+            height = temp;
+        }
+        orientation = Orientation.IDENTITY;
     }
 
     /**
@@ -201,13 +309,13 @@ public class PGMImage implements Image {
      * Връща ширината на изображението.
      * @return ширината на изображението
      */
-    @Override public int getWidth() { return width; }
+    @Override public int getWidth() { return orientation.swapsDimensions() ? height : width; }
 
     /**
      * Връща височината на изображението.
      * @return височината на изображението
      */
-    @Override public int getHeight() { return height; }
+    @Override public int getHeight() { return orientation.swapsDimensions() ? width : height; }
 
     /**
      * Връща файла на изображението.
@@ -216,19 +324,18 @@ public class PGMImage implements Image {
     @Override public File getFile() { return file; }
 
     /**
-     * Връща пикселите на изображението.
-     * @return масив от пиксели
+     * Връща кодирането на изображението.
+     * @return кодирането на изображението
      */
-    public int[][] getPixels() { return pixels; }
+    @Override public Encoding getEncoding() { return encoding; }
 
     /**
-     * Задава пикселите на изображението.
-     * @param pixels новите пиксели
+     * Връща пикселите на изображението.
+     * @return буферът с пикселите, ред по ред
      */
-    public void setPixels(int[][] pixels) {
-        this.pixels = pixels;
-        this.height = pixels.length;
-        this.width = pixels[0].length;
+    public SampleBuffer getPixels() {
+        materialize();
+        return pixels;
     }
 
     /**
@@ -239,18 +346,25 @@ public class PGMImage implements Image {
 
     /**
      * Задава максималната стойност на цвета.
+     * Ако текущият буфер не побира новата стойност, пикселите се преместват в по-широк.
      * @param maxColorValue новата максимална стойност
      */
-    public void setMaxColorValue(int maxColorValue) { this.maxColorValue = maxColorValue; }
+    public void setMaxColorValue(int maxColorValue) {
+        this.maxColorValue = maxColorValue;
+        if (pixels != null) pixels = pixels.widenTo(maxColorValue);
+    }
 
     /**
-     * Задава размерите на изображението.
+     * Задава размерите на изображението и заделя нов (черен) буфер от пиксели,
+     * достатъчно широк за текущата maxColorValue.
      * @param width новата ширина
      * @param height новата височина
      */
     public void setDimensions(int width, int height) {
         this.width = width;
         this.height = height;
+        this.orientation = Orientation.IDENTITY;
+        this.pixels = storage.allocate(width, height, 1, maxColorValue);
     }
 
     /**
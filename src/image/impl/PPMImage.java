@@ -2,27 +2,75 @@ package image.impl;
 
 import exception.EditorException;
 import image.Image;
+import image.io.Encoding;
+import image.io.NetpbmRaster;
+import image.io.NetpbmTokenizer;
+import image.io.NetpbmWriter;
+import image.storage.SampleBuffer;
+import image.storage.SampleStorage;
+import image.storage.PixelKernel;
+import image.transformation.LookupTable;
+import image.transformation.Orientation;
+import image.transformation.PointOperation;
+import image.transformation.TransformationPlan;
 
 import java.io.*;
-import java.util.Scanner;
+import java.util.List;
 
 /**
  * PPM изображение (Portable PixMap).
+ * <p>
+ * Пикселите се пазят в един непрекъснат {@link SampleBuffer}, ред по ред, с
+ * преплетени канали: семплите на пиксел (x, y) са на индекси
+ * {@code (y * width + x) * 3} до {@code (y * width + x) * 3 + 2} (R, G, B).
+ * Ширината на семплите (1, 8 или 16 бита) се избира според maxColorValue.
+ * </p>
+ * <p>
+ * Завъртанията и огледалните обръщания не местят пикселите: те само променят
+ * {@link Orientation}, през която пикселите се четат при запис. Пикселите се
+ * пренареждат едва когато някоя операция се нуждае от реалното им подреждане.
+ * </p>
  */
 public class PPMImage implements Image {
     private File file;
+    private final SampleStorage storage;
     private int width;
     private int height;
-    private int[][][] pixels;
+    private SampleBuffer pixels;
+    private Orientation orientation = Orientation.IDENTITY;
     private int maxColorValue;
+    private Encoding encoding = Encoding.ASCII;
     private final String format = "ppm";
 
     /**
-     * Конструктор за PPM изображение.
+     * Теглата на grayscale (0.3, 0.59, 0.11) в стотни. Яркостта се пресмята с
+     * {@link PixelKernel#luminance(int, int, int, int, int, int)} и съвпада бит
+     * по бит с {@code (int) (0.3 * r + 0.59 * g + 0.11 * b)} за всички стойности
+     * на семплите. Никои тегла във фиксирана запетая не дават това: заради
+     * закръглянията в {@code double} изразът понякога дава с 1 по-малко от
+     * точното частно (например за r = g = b = 1 дава 0), и то не за всички
+     * пиксели, чиято сума е цяло число.
+     */
+    private static final int RED_PERCENT = 30;
+    private static final int GREEN_PERCENT = 59;
+    private static final int BLUE_PERCENT = 11;
+
+    /**
+     * Конструктор за PPM изображение с пиксели в heap-а.
      * @param file файлът на изображението
      */
     public PPMImage(File file) {
+        this(file, SampleStorage.HEAP);
+    }
+
+    /**
+     * Конструктор за PPM изображение.
+     * @param file файлът на изображението
+     * @param storage хранилището, в което се създават пикселите му
+     */
+    public PPMImage(File file, SampleStorage storage) {
         this.file = file;
+        this.storage = storage;
     }
 
     /**
@@ -32,58 +80,87 @@ public class PPMImage implements Image {
      */
     @Override
     public void load() throws IOException, EditorException {
-        try (Scanner scanner = new Scanner(file)) {
-            String magicNumber = scanner.nextLine().trim();
-            while (magicNumber.startsWith("#")) magicNumber = scanner.nextLine().trim();
-            if (!magicNumber.equals("P3")) throw new EditorException("Invalid PPM magic number");
-
-            do {
-                if (scanner.hasNextInt()) {
-                    width = scanner.nextInt();
-                    height = scanner.nextInt();
-                } else {
-                    scanner.nextLine();
-                }
-            } while (width <= 0 || height <= 0);
-
-            maxColorValue = scanner.nextInt();
-            if (maxColorValue <= 0 || maxColorValue > 65535)
-                throw new EditorException("Invalid max color value");
-
-            pixels = new int[height][width][3];
-
-            for (int i = 0; i < height; i++) {
-                for (int j = 0; j < width; j++) {
-                    for (int c = 0; c < 3; c++) {
-                        int val = scanner.nextInt();
-                        validatePixelValue(val);
-                        pixels[i][j][c] = val;
-                    }
-                }
-            }
+        try (NetpbmTokenizer tokenizer = NetpbmTokenizer.open(file)) {
+            load(tokenizer, tokenizer.nextMagicNumber());
         }
+    }
+
+    /**
+     * Зарежда PPM изображение от вече отворен файл.
+     * @param tokenizer токенизатор, позициониран след magic number
+     * @param magicNumber прочетеният magic number
+     * @throws IOException при грешка при четене на файла
+     * @throws EditorException при невалиден формат или данни
+     */
+    @Override
+    public void load(NetpbmTokenizer tokenizer, String magicNumber) throws IOException, EditorException {
+        if (!magicNumber.equals("P3") && !magicNumber.equals("P6"))
+            throw new EditorException("Invalid PPM magic number");
+        encoding = magicNumber.equals("P6") ? Encoding.RAW : Encoding.ASCII;
+        orientation = Orientation.IDENTITY;
+
+        width = tokenizer.nextInt();
+        height = tokenizer.nextInt();
+        if (width <= 0 || height <= 0) throw new EditorException("Invalid image dimensions");
+        if ((long) width * 3 > Integer.MAX_VALUE) throw new EditorException("Image dimensions too large");
+
+        maxColorValue = tokenizer.nextInt();
+        if (maxColorValue <= 0 || maxColorValue > 65535)
+            throw new EditorException("Invalid max color value");
+
+        pixels = new NetpbmRaster(magicNumber, width, height, 3, maxColorValue).load(tokenizer, file, storage);
         System.out.println("Loaded PPM: " + width + "x" + height);
     }
 
     /**
-     * Записва PPM изображение във файл.
+     * Записва PPM изображение във файл със същото кодиране, с което е заредено.
      * @param outputFile файлът за запис
      * @throws IOException при грешка при запис на файла
      */
     @Override
     public void save(File outputFile) throws IOException {
-        try (PrintWriter writer = new PrintWriter(outputFile)) {
-            writer.println("P3");
-            writer.println(width + " " + height);
-            writer.println(maxColorValue);
-
-            for (int[][] row : pixels) {
-                for (int[] pixel : row) {
-                    writer.println(pixel[0] + " " + pixel[1] + " " + pixel[2]);
-                }
+        save(outputFile, encoding);
+    }
+
+    /**
+     * Записва PPM изображение във файл като текстов (P3) или суров (P6) PPM.
+     * @param outputFile файлът за запис
+     * @param encoding кодирането на растера
+     * @throws IOException при грешка при запис на файла
+     */
+    @Override
+    public void save(File outputFile, Encoding encoding) throws IOException {
+        save(outputFile, encoding, false);
+    }
+
+    /**
+     * Записва PPM изображение във файл с избрано кодиране, като при поточен
+     * запис растерът, който все още е във файла, се чете ред по ред.
+     * @param outputFile файлът за запис
+     * @param encoding кодирането на растера
+     * @param streaming дали растерът да не се чете целият в паметта
+     * @throws IOException при грешка при запис на файла
+     */
+    @Override
+    public void save(File outputFile, Encoding encoding, boolean streaming) throws IOException {
+        if (!streaming) {
+            pixels = pixels.materialized();
+        }
+        if (encoding == Encoding.RAW) {
+            try (NetpbmWriter writer = NetpbmWriter.open(outputFile)) {
+                writer.writeHeader("P6", getWidth(), getHeight(), maxColorValue);
+                orientedPixels().writeSamples(writer, maxColorValue > 0xFF ? 2 : 1);
+                writer.commit();
+            }
+        } else {
+            try (NetpbmWriter writer = NetpbmWriter.open(outputFile)) {
+                writer.writeAsciiHeader("P3", getWidth(), getHeight(), maxColorValue);
+                writer.writeAsciiRows(orientedPixels(), 3, false);
+                writer.commit();
             }
         }
         this.file = outputFile;
+        this.encoding = encoding;
         System.out.println("Saved PPM to: " + outputFile.getName());
     }
 
@@ -93,15 +170,14 @@ public class PPMImage implements Image {
      */
     @Override
     public Image cloneImage() {
-        PPMImage clone = new PPMImage(this.file);
+        PPMImage clone = new PPMImage(this.file, this.storage);
         clone.width = this.width;
         clone.height = this.height;
+        clone.encoding = this.encoding;
         clone.maxColorValue = this.maxColorValue;
-        clone.pixels = new int[height][width][3];
-
-        for (int i = 0; i < height; i++)
-            for (int j = 0; j < width; j++)
-                clone.pixels[i][j] = pixels[i][j].clone();
+        pixels = pixels.copyOnWrite();
+        clone.pixels = pixels.copy();
+        clone.orientation = this.orientation;
 
         return clone;
     }
@@ -119,19 +195,35 @@ public class PPMImage implements Image {
             case "negative" -> applyNegative();
             case "rotate_left" -> applyRotation("left");
             case "rotate_right" -> applyRotation("right");
+            case "rotate_180" -> applyRotation("180");
+            case "flip_horizontal" -> applyFlip("horizontal");
+            case "flip_vertical" -> applyFlip("vertical");
+            case "transpose" -> applyTranspose();
             default -> throw new EditorException("Unknown transformation: " + transformation);
         }
     }
 
+    /**
+     * Прилага поредица от трансформации по оптимизиран план: едно обхождане
+     * на пикселите и най-много едно завъртане.
+     * @param transformations имената на трансформациите
+     * @throws EditorException при непозната трансформация
+     */
+    @Override
+    public void applyTransformations(List<String> transformations) throws EditorException {
+        TransformationPlan plan = TransformationPlan.compile(transformations, format);
+        applyPointOperations(plan.getPointOperations());
+
+        orientation = orientation.then(plan.getOrientation());
+        System.out.println(plan.isEmpty() ? "No changes to apply" : "Applied " + String.join(", ", plan.getSteps()));
+    }
+
     /**
      * Прилага grayscale трансформация.
      */
     @Override
     public void applyGrayscale() {
-        forEachPixel((r, g, b) -> {
-            int gray = (int) (0.3 * r + 0.59 * g + 0.11 * b);
-            return new int[]{gray, gray, gray};
-        });
+        applyPointOperations(List.of(PointOperation.GRAYSCALE));
         System.out.println("Applied grayscale");
     }
 
@@ -140,11 +232,7 @@ public class PPMImage implements Image {
      */
     @Override
     public void applyMonochrome() {
-        forEachPixel((r, g, b) -> {
-            int avg = (r + g + b) / 3;
-            int val = (avg > maxColorValue / 2) ? maxColorValue : 0;
-            return new int[]{val, val, val};
-        });
+        applyPointOperations(List.of(PointOperation.MONOCHROME));
         System.out.println("Applied monochrome");
     }
 
@@ -153,59 +241,131 @@ public class PPMImage implements Image {
      */
     @Override
     public void applyNegative() {
-        forEachPixel((r, g, b) -> new int[]{
-                maxColorValue - r,
-                maxColorValue - g,
-                maxColorValue - b
-        });
+        pixels.invert(maxColorValue);
         System.out.println("Applied negative");
     }
 
     /**
      * Завърта изображението.
-     * @param direction посоката на завъртане (left/right)
+     * @param direction посоката на завъртане (left/right/180)
      * @throws EditorException при невалидна посока
      */
     @Override
     public void applyRotation(String direction) throws EditorException {
-        int[][][] newPixels;
-        if (direction.equals("left")) {
-            newPixels = new int[width][height][3];
-            for (int i = 0; i < height; i++)
-                for (int j = 0; j < width; j++)
-                    newPixels[width - 1 - j][i] = pixels[i][j];
-        } else if (direction.equals("right")) {
-            newPixels = new int[width][height][3];
-            for (int i = 0; i < height; i++)
-                for (int j = 0; j < width; j++)
-                    newPixels[j][height - 1 - i] = pixels[i][j];
-        } else throw new EditorException("Invalid rotation: " + direction);
-
-        pixels = newPixels;
-        int tmp = width;
-        width = height;
-        height = tmp;
+        if (direction.equals("left")) reorient(Orientation.ROTATE_LEFT);
+        else if (direction.equals("right")) reorient(Orientation.ROTATE_RIGHT);
+        else if (direction.equals("180")) reorient(Orientation.ROTATE_180);
+        else throw new EditorException("Invalid rotation: " + direction);
         System.out.println("Applied " + direction + " rotation");
     }
 
     /**
-     * Валидира стойността на пиксела.
-     * @param val стойността за валидиране
-     * @throws EditorException при невалидна стойност
+     * Обръща изображението огледално.
+     * @param axis посоката на обръщане (horizontal/vertical)
+     * @throws EditorException при невалидна посока
+     */
+    @Override
+    public void applyFlip(String axis) throws EditorException {
+        if (axis.equals("horizontal")) reorient(Orientation.FLIP_HORIZONTAL);
+        else if (axis.equals("vertical")) reorient(Orientation.FLIP_VERTICAL);
+        else throw new EditorException("Invalid flip direction: " + axis);
+        System.out.println("Applied " + axis + " flip");
+    }
+
+    /**
+     * Транспонира изображението.
      */
-    private void validatePixelValue(int val) throws EditorException {
-        if (val < 0 || val > maxColorValue)
-            throw new EditorException("Pixel value out of range: " + val);
+    @Override
+    public void applyTranspose() {
+        reorient(Orientation.TRANSPOSE);
+        System.out.println("Applied transpose");
     }
 
-    private interface PixelFunction {
-        int[] apply(int r, int g, int b);
+    /**
+     * Добавя завъртане или обръщане към ориентацията, без да мести пиксели.
+     * @param next ориентацията, която се прилага след текущата
+     */
+    private void reorient(Orientation next) {
+        orientation = orientation.then(next);
+    }
+
+    /**
+     * Връща пикселите в текущата ориентация - самия буфер или изглед към него.
+     * @return семплите ред по ред в размерите {@link #getWidth()} x {@link #getHeight()}
+     */
+    private SampleBuffer orientedPixels() {
+        return orientation.view(pixels, width, height, 3);
     }
 
-    private void forEachPixel(PixelFunction f) {
-        for (int i = 0; i < height; i++)
-            for (int j = 0; j < width; j++)
-                pixels[i][j] = f.apply(pixels[i][j][0], pixels[i][j][1], pixels[i][j][2]);
+    /**
+     * Пренарежда пикселите в текущата ориентация (на място, когато е възможно).
+     */
+    private void materialize() {
+        if (orientation == Orientation.IDENTITY) {
+            return;
+        }
+        pixels = orientation.apply(pixels, width, height, 3);
+        if (orientation.swapsDimensions()) {
+            int temp = width;
+            width = height;
+            height = temp;
+        }
+        orientation = Orientation.IDENTITY;
+    }
+
+    /**
+     * Прилага трансформации на пиксели с едно обхождане чрез таблици.
+     * <p>
+     * Докато не се стигне до трансформация, която смесва каналите (grayscale
+     * или monochrome), всяка трансформация действа на всеки канал поотделно
+     * и се събира в таблицата {@code pre}. След смесването трите канала са равни,
+     * затова всички следващи трансформации се събират в таблицата {@code post}
+     * върху сивата стойност. Така всяка верига се свежда до таблица, най-много
+     * едно смесване и още една таблица.
+     * </p>
+     * @param operations трансформациите в реда на прилагане
+     */
+    private void applyPointOperations(List<PointOperation> operations) {
+        LookupTable pre = LookupTable.identity(maxColorValue);
+        LookupTable post = LookupTable.identity(maxColorValue);
+        PointOperation mixer = null;
+
+        for (PointOperation operation : operations) {
+            if (mixer != null) {
+                post = post.andThen(operation.onGray(maxColorValue));
+            } else if (operation == PointOperation.NEGATIVE) {
+                pre = pre.andThen(operation.onGray(maxColorValue));
+            } else {
+                mixer = operation;
+            }
+        }
+
+        if (mixer == null) {
+            if (!pre.isIdentity()) {
+                pixels.applyLookupTable(pre.values());
+            }
+        } else if (mixer == PointOperation.GRAYSCALE && pre.isIdentity() && post.isIdentity()) {
+            pixels.luminance(RED_PERCENT, GREEN_PERCENT, BLUE_PERCENT);
+        } else if (mixer == PointOperation.GRAYSCALE) {
+            pixels.mixChannels(grayscaleKernel(pre.values(), post.values()));
+        } else {
+            pixels.mixChannels(monochromeKernel(pre.values(), post.values()));
+        }
+    }
+
+    /**
+     * Grayscale с цели числа, след {@code pre} и преди {@code post}.
+     */
+    private PixelKernel grayscaleKernel(int[] pre, int[] post) {
+        return (r, g, b) -> post[PixelKernel.luminance(pre[r], pre[g], pre[b], RED_PERCENT, GREEN_PERCENT, BLUE_PERCENT)];
+    }
+
+    private PixelKernel monochromeKernel(int[] pre, int[] post) {
+        int threshold = maxColorValue / 2;
+        int high = post[maxColorValue];
+        int low = post[0];
+
+        return (r, g, b) -> (pre[r] + pre[g] + pre[b]) / 3 > threshold ? high : low;
     }
 
     /**
@@ -218,13 +378,13 @@ public class PPMImage implements Image {
      * Връща ширината на изображението.
      * @return ширината на изображението
      */
-    @Override public int getWidth() { return width; }
+    @Override public int getWidth() { return orientation.swapsDimensions() ? height : width; }
 
     /**
      * Връща височината на изображението.
      * @return височината на изображението
      */
-    @Override public int getHeight() { return height; }
+    @Override public int getHeight() { return orientation.swapsDimensions() ? width : height; }
 
     /**
      * Връща файла на изображението.
@@ -233,19 +393,32 @@ public class PPMImage implements Image {
     @Override public File getFile() { return file; }
 
     /**
-     * Връща пикселите на изображението.
-     * @return триизмерен масив от пиксели
+     * Връща кодирането на изображението.
+     * @return кодирането на изображението
      */
-    public int[][][] getPixels() { return pixels; }
+    @Override public Encoding getEncoding() { return encoding; }
 
     /**
-     * Задава пикселите на изображението.
-     * @param pixels новите пиксели
+     * Копира ред от изображението в подадения масив.
+     * Записват се {@code width * 3} семпъла (R, G, B за всеки пиксел).
+     * @param y номер на реда
+     * @param dst масивът, в който се копира редът
+     * @param dstOffset позиция в {@code dst}, от която започва записът
      */
-    public void setPixels(int[][][] pixels) {
-        this.pixels = pixels;
-        this.height = pixels.length;
-        this.width = pixels[0].length;
+    public void getRow(int y, int[] dst, int dstOffset) {
+        orientedPixels().getRange((long) y * getWidth() * 3, dst, dstOffset, getWidth() * 3);
+    }
+
+    /**
+     * Записва ред от изображението от подадения масив.
+     * Четат се {@code width * 3} семпъла (R, G, B за всеки пиксел).
+     * @param y номер на реда
+     * @param src масивът, от който се чете редът
+     * @param srcOffset позиция в {@code src}, от която започва четенето
+     */
+    public void setRow(int y, int[] src, int srcOffset) {
+        materialize();
+        pixels.setRange((long) y * width * 3, src, srcOffset, width * 3);
     }
 
     /**
@@ -254,19 +427,35 @@ public class PPMImage implements Image {
      */
     public int getMaxColorValue() { return maxColorValue; }
 
+    /**
+     * Връща пикселите на изображението.
+     * @return буферът с преплетените RGB семпли, ред по ред
+     */
+    public SampleBuffer getPixels() {
+        materialize();
+        return pixels;
+    }
+
     /**
      * Задава максималната стойност на цвета.
+     * Ако текущият буфер не побира новата стойност, пикселите се преместват в по-широк.
      * @param maxColorValue новата максимална стойност
      */
-    public void setMaxColorValue(int maxColorValue) { this.maxColorValue = maxColorValue; }
+    public void setMaxColorValue(int maxColorValue) {
+        this.maxColorValue = maxColorValue;
+        if (pixels != null) pixels = pixels.widenTo(maxColorValue);
+    }
 
     /**
-     * Задава размерите на изображението.
+     * Задава размерите на изображението и заделя нов (черен) буфер от пиксели,
+     * достатъчно широк за текущата maxColorValue.
      * @param width новата ширина
      * @param height новата височина
      */
     public void setDimensions(int width, int height) {
         this.width = width;
         this.height = height;
+        this.orientation = Orientation.IDENTITY;
+        this.pixels = storage.allocate(width, height, 3, maxColorValue);
     }
 }
\ No newline at end of file
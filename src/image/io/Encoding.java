@@ -0,0 +1,34 @@
+package image.io;
+
+import exception.EditorException;
+
+/**
+ * Кодиране на растера при запис на netpbm файл.
+ */
+public enum Encoding {
+    /**
+     * Текстов вид (P1, P2, P3) - семплите се записват като десетични числа.
+     */
+    ASCII,
+
+    /**
+     * Суров двоичен вид (P4, P5, P6) - по 1 бит, 1 байт или 2 байта на семпъл.
+     */
+    RAW;
+
+    /**
+     * Намира кодиране по име, без значение от малки и главни букви.
+     *
+     * @param name името ("ascii" или "raw")
+     * @return съответното кодиране
+     * @throws EditorException при непознато име
+     */
+    public static Encoding fromName(String name) throws EditorException {
+        for (Encoding encoding : values()) {
+            if (encoding.name().equalsIgnoreCase(name)) {
+                return encoding;
+            }
+        }
+        throw new EditorException("Unknown encoding: " + name + ". Use 'ascii' or 'raw'");
+    }
+}
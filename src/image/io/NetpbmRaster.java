@@ -0,0 +1,252 @@
+package image.io;
+
+import exception.EditorException;
+import image.storage.DeferredSampleBuffer;
+import image.storage.SampleBuffer;
+import image.storage.SampleStorage;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Растерът на netpbm изображение: как се чете според magic number-а и
+ * размерите от заглавната част.
+ * <p>
+ * Растер, който се проверява само по дължината на файла или не се побира в
+ * паметта, не се чете при зареждане, а изображението получава
+ * {@link DeferredSampleBuffer}, който го чете при първа нужда или ред по ред
+ * при поточен запис. Файлът остава отворен, докато буферът се използва, така
+ * че записът върху същия файл не променя растера, който буферът вижда.
+ * Хранилището на сесията го затваря, когато буферът стане недостижим или
+ * сесията се затвори (вж. {@link SampleStorage#openRaster}).
+ * </p>
+ */
+public final class NetpbmRaster {
+    private static final int VERIFY_SAMPLES = 1 << 16;
+
+    private final boolean raw;
+    private final boolean bitmap;
+    private final int width;
+    private final int height;
+    private final int samplesPerPixel;
+    private final int maxValue;
+
+    /**
+     * Описва растера след прочетена заглавна част.
+     *
+     * @param magicNumber magic number-ът на файла (P1 до P6)
+     * @param width ширината на изображението
+     * @param height височината на изображението
+     * @param samplesPerPixel брой семпли в пиксел
+     * @param maxValue най-голямата стойност на семпъл (1 за PBM)
+     */
+    public NetpbmRaster(String magicNumber, int width, int height, int samplesPerPixel, int maxValue) {
+        this.raw = magicNumber.equals("P4") || magicNumber.equals("P5") || magicNumber.equals("P6");
+        this.bitmap = magicNumber.equals("P1") || magicNumber.equals("P4");
+        this.width = width;
+        this.height = height;
+        this.samplesPerPixel = samplesPerPixel;
+        this.maxValue = maxValue;
+    }
+
+    /**
+     * Зарежда растера, който следва заглавната част. Суровият растер се проектира
+     * в паметта, ако хранилището го позволява. Иначе растер, чието четене може
+     * да се отложи, само се проверява и се връща отложен буфер, а останалите
+     * се четат в нов буфер.
+     *
+     * @param tokenizer токенизатор, позициониран след последното число от заглавната част
+     * @param file файлът на изображението
+     * @param storage хранилището, в което се създават пикселите
+     * @return буферът с пикселите, ред по ред
+     * @throws IOException при грешка при четене на файла
+     * @throws EditorException при невалидни данни
+     */
+    public SampleBuffer load(NetpbmTokenizer tokenizer, File file, SampleStorage storage)
+            throws IOException, EditorException {
+        if (raw) {
+            tokenizer.skipRasterSeparator();
+        }
+        SampleBuffer pixels = raw
+                ? storage.map(file, tokenizer.offset(), width, height, samplesPerPixel, maxValue, bitmap)
+                : null;
+        if (pixels != null) {
+            validate(pixels);
+            return pixels;
+        }
+        if (verifiedBySize() || !storage.fitsInMemory(width, height, samplesPerPixel, maxValue)) {
+            FileSource source = new FileSource(file, tokenizer.offset(), storage);
+            try {
+                verify(source);
+            } catch (IOException | EditorException e) {
+                source.channel.close();
+                throw e;
+            }
+            return new DeferredSampleBuffer(width * samplesPerPixel, height, maxValue, source);
+        }
+
+        pixels = storage.allocate(width, height, samplesPerPixel, maxValue);
+        read(tokenizer, pixels);
+        return pixels;
+    }
+
+    /**
+     * Дали растерът е суров и не може да съдържа невалидни стойности - тогава
+     * стига да се провери дължината на файла.
+     */
+    private boolean verifiedBySize() {
+        return raw && (bitmap || maxValue == 0xFF || maxValue == 0xFFFF);
+    }
+
+    /**
+     * Проверява отложения растер още при зареждане, за да не се окаже невалиден
+     * по средата на записа. Растерът се чете на ивици, без да се пази, освен
+     * ако стига да се провери дължината на файла.
+     */
+    private void verify(FileSource source) throws IOException, EditorException {
+        if (verifiedBySize()) {
+            long rowBytes = bitmap ? (width + 7) / 8 : (long) width * samplesPerPixel * (maxValue > 0xFF ? 2 : 1);
+            if (source.channel.size() - source.offset < rowBytes * height) {
+                throw new EOFException("Unexpected end of raster data");
+            }
+            return;
+        }
+        int rowLength = width * samplesPerPixel;
+        int stripRows = Math.max(1, VERIFY_SAMPLES / rowLength);
+        try (NetpbmTokenizer tokenizer = source.tokenizer()) {
+            SampleBuffer strip = null;
+            for (int row = 0; row < height; row += stripRows) {
+                int rows = Math.min(stripRows, height - row);
+                if (strip == null || strip.length() != rows * rowLength) {
+                    strip = SampleBuffer.allocate(rows * rowLength, maxValue);
+                }
+                read(tokenizer, strip);
+            }
+        }
+    }
+
+    /**
+     * Чете следващите {@code dst.length()} семпли (цял брой редове) и проверява стойностите им.
+     */
+    private void read(NetpbmTokenizer tokenizer, SampleBuffer dst) throws IOException, EditorException {
+        if (raw) {
+            if (bitmap) {
+                dst.readPackedRows(tokenizer, width);
+            } else {
+                dst.readSamples(tokenizer, maxValue > 0xFF ? 2 : 1);
+            }
+            validate(dst);
+        } else if (bitmap) {
+            for (long k = 0; k < dst.length(); k++) {
+                dst.set(k, tokenizer.nextBit());
+            }
+        } else {
+            for (long k = 0; k < dst.length(); k++) {
+                int val = tokenizer.nextInt();
+                validatePixelValue(val);
+                dst.set(k, val);
+            }
+        }
+    }
+
+    /**
+     * Проверява суров растер, чиито семпли може да надвишават maxValue.
+     */
+    private void validate(SampleBuffer pixels) throws EditorException {
+        if (!bitmap && maxValue < pixels.maxSupportedValue()) {
+            validatePixelValue(pixels.maxSample());
+        }
+    }
+
+    private void validatePixelValue(int val) throws EditorException {
+        if (val < 0 || val > maxValue)
+            throw new EditorException("Pixel value out of range: " + val);
+    }
+
+    /**
+     * Растерът на отворен файл, който се чете от отместването си при всяко отваряне.
+     * Файлът се затваря от хранилището, когато източникът стане недостижим.
+     */
+    private final class FileSource implements DeferredSampleBuffer.Source {
+        private final FileChannel channel;
+        private final long offset;
+        private final SampleStorage storage;
+
+        FileSource(File file, long offset, SampleStorage storage) throws IOException {
+            this.channel = storage.openRaster(file, this);
+            this.offset = offset;
+            this.storage = storage;
+        }
+
+        @Override
+        public SampleBuffer readAll() throws IOException {
+            SampleBuffer pixels = storage.allocate(width, height, samplesPerPixel, maxValue);
+            try (DeferredSampleBuffer.Reader reader = open()) {
+                reader.read(pixels);
+            }
+            return pixels;
+        }
+
+        NetpbmTokenizer tokenizer() {
+            return new NetpbmTokenizer(new RasterChannel(channel, offset));
+        }
+
+        @Override
+        public DeferredSampleBuffer.Reader open() {
+            NetpbmTokenizer tokenizer = tokenizer();
+            return new DeferredSampleBuffer.Reader() {
+                @Override
+                public void read(SampleBuffer dst) throws IOException {
+                    try {
+                        NetpbmRaster.this.read(tokenizer, dst);
+                    } catch (EditorException e) {
+                        throw new IOException(e.getMessage(), e);
+                    }
+                }
+
+                @Override
+                public void close() throws IOException {
+                    tokenizer.close();
+                }
+            };
+        }
+    }
+
+    /**
+     * Последователно четене на споделен файл от дадена позиция. Затварянето
+     * не затваря файла, защото от него може да четат и други копия на буфера.
+     */
+    private static final class RasterChannel implements ReadableByteChannel {
+        private final FileChannel file;
+        private long position;
+        private boolean open = true;
+
+        RasterChannel(FileChannel file, long position) {
+            this.file = file;
+            this.position = position;
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            int count = file.read(dst, position);
+            if (count > 0) {
+                position += count;
+            }
+            return count;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return open && file.isOpen();
+        }
+
+        @Override
+        public void close() {
+            open = false;
+        }
+    }
+}
@@ -0,0 +1,245 @@
+package image.io;
+
+import exception.EditorException;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Токенизатор за netpbm файлове.
+ * <p>
+ * Чете файла на големи блокове в един преизползваем буфер и разпознава
+ * числата директно от байтовете, без да създава низове или други обекти
+ * за всеки токен. Коментарите (от {@code #} до края на реда) се пропускат
+ * навсякъде, където е позволен разделител.
+ * </p>
+ * <p>
+ * За суровите формати (P4, P5, P6) след заглавната част токенизаторът се
+ * използва като {@link ReadableByteChannel}: първо се връщат вече буферираните
+ * байтове, а големите заявки се четат директно от файла в буфера на извикващия.
+ * </p>
+ */
+public class NetpbmTokenizer implements ReadableByteChannel {
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final ReadableByteChannel channel;
+    private final ByteBuffer buffer;
+    private final byte[] bytes;
+    private int position;
+    private int limit;
+    private long consumed;
+
+    /**
+     * Създава токенизатор, който чете от подадения канал.
+     * @param channel каналът, от който се чете
+     */
+    public NetpbmTokenizer(ReadableByteChannel channel) {
+        this.channel = channel;
+        this.buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        this.bytes = buffer.array();
+    }
+
+    /**
+     * Отваря файл за четене.
+     * @param file файлът
+     * @return токенизатор върху файла
+     * @throws IOException ако файлът не може да бъде отворен
+     */
+    public static NetpbmTokenizer open(File file) throws IOException {
+        return new NetpbmTokenizer(FileChannel.open(file.toPath(), StandardOpenOption.READ));
+    }
+
+    /**
+     * Прочита "magic number" на файла (например "P3").
+     * @return magic number като низ
+     * @throws IOException при грешка при четене
+     * @throws EditorException ако файлът не започва с валиден magic number
+     */
+    public String nextMagicNumber() throws IOException, EditorException {
+        int first = skipSeparators();
+        int second = read();
+        if (first != 'P' || second < '0' || second > '9') {
+            throw new EditorException("No magic number found");
+        }
+        return "P" + (char) second;
+    }
+
+    /**
+     * Прочита следващото неотрицателно десетично число.
+     * Разделителят след числото не се консумира.
+     *
+     * @return прочетеното число
+     * @throws IOException при грешка при четене
+     * @throws EditorException при край на файла или невалиден токен
+     */
+    public int nextInt() throws IOException, EditorException {
+        int c = skipSeparators();
+        if (c < '0' || c > '9') {
+            throw unexpected(c);
+        }
+
+        int value = c - '0';
+        while (true) {
+            if (position == limit && !fill()) {
+                return value;
+            }
+            c = bytes[position];
+            if (c < '0' || c > '9') {
+                break;
+            }
+            if (value > (Integer.MAX_VALUE - 9) / 10) {
+                throw new EditorException("Number too large");
+            }
+            value = value * 10 + (c - '0');
+            position++;
+        }
+
+        if (!isSeparator(c)) {
+            throw new EditorException("Invalid token: unexpected character '" + (char) c + "'");
+        }
+        return value;
+    }
+
+    /**
+     * Прочита следващия пиксел от P1 растер. Според спецификацията
+     * пикселите могат да не са разделени с интервали, затова се чете
+     * само една цифра.
+     *
+     * @return 0 или 1
+     * @throws IOException при грешка при четене
+     * @throws EditorException при край на файла или стойност, различна от 0 и 1
+     */
+    public int nextBit() throws IOException, EditorException {
+        int c = skipSeparators();
+        if (c == '0' || c == '1') {
+            return c - '0';
+        }
+        if (c >= '2' && c <= '9') {
+            throw new EditorException("Invalid pixel value: " + (char) c);
+        }
+        throw unexpected(c);
+    }
+
+    /**
+     * Пропуска единствения интервал, който отделя заглавната част
+     * на суров netpbm файл от растера.
+     *
+     * @throws IOException при грешка при четене
+     * @throws EditorException ако след заглавната част няма интервал
+     */
+    public void skipRasterSeparator() throws IOException, EditorException {
+        int c = read();
+        if (c == -1 || !isWhitespace(c)) {
+            throw unexpected(c);
+        }
+    }
+
+    /**
+     * Връща позицията на следващия непрочетен байт спрямо началото на канала.
+     * След {@link #skipRasterSeparator()} това е отместването на растера във файла.
+     *
+     * @return броят байтове преди следващия непрочетен
+     */
+    public long offset() {
+        return consumed - (limit - position);
+    }
+
+    /**
+     * Чете байтове от растера. Ако във вътрешния буфер има непрочетени байтове,
+     * се връщат те; иначе големите заявки се четат направо от файла.
+     *
+     * @param dst буферът, в който се записва
+     * @return броят прочетени байтове или -1 при край на файла
+     * @throws IOException при грешка при четене
+     */
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        if (position == limit) {
+            if (dst.remaining() >= BUFFER_SIZE) {
+                int count = channel.read(dst);
+                consumed += Math.max(count, 0);
+                return count;
+            }
+            if (!fill()) {
+                return -1;
+            }
+        }
+        int count = Math.min(limit - position, dst.remaining());
+        dst.put(bytes, position, count);
+        position += count;
+        return count;
+    }
+
+    /**
+     * Проверява дали каналът е отворен.
+     * @return true, ако каналът е отворен
+     */
+    @Override
+    public boolean isOpen() {
+        return channel.isOpen();
+    }
+
+    /**
+     * Затваря канала.
+     * @throws IOException при грешка при затваряне
+     */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Пропуска интервали и коментари.
+     * @return първият байт след тях или -1 при край на файла
+     */
+    private int skipSeparators() throws IOException {
+        while (true) {
+            int c = read();
+            if (c == '#') {
+                do {
+                    c = read();
+                } while (c != '\n' && c != '\r' && c != -1);
+            } else if (c == -1 || !isWhitespace(c)) {
+                return c;
+            }
+        }
+    }
+
+    private int read() throws IOException {
+        if (position == limit && !fill()) {
+            return -1;
+        }
+        return bytes[position++] & 0xFF;
+    }
+
+    private boolean fill() throws IOException {
+        buffer.clear();
+        int count;
+        do {
+            count = channel.read(buffer);
+        } while (count == 0);
+        position = 0;
+        limit = Math.max(count, 0);
+        consumed += limit;
+        return count > 0;
+    }
+
+    private static boolean isSeparator(int c) {
+        return c == '#' || isWhitespace(c);
+    }
+
+    private static boolean isWhitespace(int c) {
+        return c == ' ' || c == '\n' || c == '\r' || c == '\t' || c == 0x0B || c == '\f';
+    }
+
+    private static EditorException unexpected(int c) {
+        if (c == -1) {
+            return new EditorException("Unexpected end of file");
+        }
+        return new EditorException("Invalid token: unexpected character '" + (char) c + "'");
+    }
+}
@@ -0,0 +1,309 @@
+package image.io;
+
+import image.storage.SampleBuffer;
+import image.storage.TransferTarget;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Записва netpbm файл през {@link FileChannel}.
+ * <p>
+ * Малките записи се натрупват във вътрешен буфер и се изпращат към файла
+ * на големи блокове, а големите (например целият растер на 8-битово
+ * изображение) се записват директно.
+ * </p>
+ * <p>
+ * ASCII растерът се форматира директно в същия буфер чрез таблица с цифрите
+ * на числата от 0 до 999, без да се създават низове. Разделителите съвпадат
+ * с тези на {@link java.io.PrintWriter}, така че файловете са байт по байт
+ * същите като записаните с него.
+ * </p>
+ * <p>
+ * Файл, отворен с {@link #open(File)}, се записва като временен файл до него
+ * и замества целевия едва при {@link #commit()}. Така старото съдържание остава
+ * достъпно до края на записа, включително за изображение, проектирано в паметта
+ * от същия файл (вж. {@link image.storage.SampleStorage}). Ако записвачът се
+ * затвори без {@link #commit()} (например след изключение), временният файл се
+ * изтрива и целевият остава непроменен.
+ * </p>
+ */
+public class NetpbmWriter implements TransferTarget {
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final int VALUES_CHUNK = 1 << 12;
+    private static final byte[] LINE_SEPARATOR = System.lineSeparator().getBytes(StandardCharsets.US_ASCII);
+
+    /**
+     * Най-дългият запис на един семпъл: пет цифри, два интервала и нов ред.
+     */
+    private static final int MAX_ENTRY_SIZE = 7 + LINE_SEPARATOR.length;
+
+    /**
+     * Цифрите на числата от 0 до 999, по три на число и допълнени с нули отляво.
+     */
+    private static final byte[] DIGITS = new byte[1000 * 3];
+
+    /**
+     * Броят значещи цифри на числата от 0 до 999.
+     */
+    private static final byte[] DIGIT_COUNTS = new byte[1000];
+
+    static {
+        for (int i = 0; i < 1000; i++) {
+            DIGITS[i * 3] = (byte) ('0' + i / 100);
+            DIGITS[i * 3 + 1] = (byte) ('0' + i / 10 % 10);
+            DIGITS[i * 3 + 2] = (byte) ('0' + i % 10);
+            DIGIT_COUNTS[i] = (byte) (i < 10 ? 1 : i < 100 ? 2 : 3);
+        }
+    }
+
+    private final WritableByteChannel channel;
+    private final ByteBuffer buffer;
+    private final byte[] bytes;
+    private final Path temporary;
+    private final Path target;
+    private boolean committed;
+
+    /**
+     * Създава записвач, който пише в подадения канал.
+     * @param channel каналът, в който се пише
+     */
+    public NetpbmWriter(WritableByteChannel channel) {
+        this(channel, null, null);
+    }
+
+    private NetpbmWriter(WritableByteChannel channel, Path temporary, Path target) {
+        this.channel = channel;
+        this.buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        this.bytes = buffer.array();
+        this.temporary = temporary;
+        this.target = target;
+    }
+
+    /**
+     * Отваря файл за запис. Предишното му съдържание се заменя при {@link #commit()}.
+     * Временният файл има уникално име, така че едновременните записи в един
+     * и същ файл не пишат един върху друг.
+     * @param file файлът
+     * @return записвач върху файла
+     * @throws IOException ако файлът не може да бъде отворен
+     */
+    public static NetpbmWriter open(File file) throws IOException {
+        Path target = file.toPath();
+        while (true) {
+            Path temporary = target.resolveSibling("." + target.getFileName() + "."
+                    + Long.toUnsignedString(ThreadLocalRandom.current().nextLong(), 36) + ".tmp");
+            try {
+                return new NetpbmWriter(FileChannel.open(temporary, StandardOpenOption.WRITE,
+                        StandardOpenOption.CREATE_NEW), temporary, target);
+            } catch (FileAlreadyExistsException e) {
+                // друг запис е избрал същото име - опитваме с ново
+            }
+        }
+    }
+
+    /**
+     * Записва заглавната част на суров netpbm файл. След нея следва
+     * точно един нов ред, след който започва растерът.
+     *
+     * @param magicNumber magic number (например "P6")
+     * @param width ширина на изображението
+     * @param height височина на изображението
+     * @param maxValue максимална стойност на семпъл или 0 за PBM, който няма такава
+     * @throws IOException при грешка при запис
+     */
+    public void writeHeader(String magicNumber, int width, int height, int maxValue) throws IOException {
+        writeHeader(magicNumber, width, height, maxValue, "\n");
+    }
+
+    /**
+     * Записва заглавната част на ASCII netpbm файл, като редовете се
+     * разделят със системния разделител за нов ред.
+     *
+     * @param magicNumber magic number (например "P3")
+     * @param width ширина на изображението
+     * @param height височина на изображението
+     * @param maxValue максимална стойност на семпъл или 0 за PBM, който няма такава
+     * @throws IOException при грешка при запис
+     */
+    public void writeAsciiHeader(String magicNumber, int width, int height, int maxValue) throws IOException {
+        writeHeader(magicNumber, width, height, maxValue, System.lineSeparator());
+    }
+
+    /**
+     * Записва семплите като десетични числа, разделени с интервал, като
+     * след всеки {@code rowLength} семпъла се слага нов ред.
+     *
+     * @param samples семплите за запис (стойности до 65535)
+     * @param rowLength брой семпли на ред
+     * @param trailingSpace дали и последният семпъл на реда да е следван от интервал
+     * @throws IOException при грешка при запис
+     */
+    public void writeAsciiRows(SampleBuffer samples, int rowLength, boolean trailingSpace) throws IOException {
+        long length = samples.length();
+        int[] values = new int[(int) Math.min(length, VALUES_CHUNK)];
+        int position = buffer.position();
+        int column = 0;
+
+        for (long start = 0; start < length; start += values.length) {
+            int count = (int) Math.min(values.length, length - start);
+            samples.getRange(start, values, 0, count);
+
+            for (int i = 0; i < count; i++) {
+                if (position > BUFFER_SIZE - MAX_ENTRY_SIZE) {
+                    buffer.position(position);
+                    flush();
+                    position = 0;
+                }
+                position = putDecimal(values[i], position);
+                if (++column < rowLength || trailingSpace) {
+                    bytes[position++] = ' ';
+                }
+                if (column == rowLength) {
+                    column = 0;
+                    for (byte b : LINE_SEPARATOR) {
+                        bytes[position++] = b;
+                    }
+                }
+            }
+        }
+        buffer.position(position);
+    }
+
+    /**
+     * Записва байтове от {@code src}. Малките записи се буферират.
+     *
+     * @param src байтовете за запис
+     * @return броят записани байтове
+     * @throws IOException при грешка при запис
+     */
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+        int count = src.remaining();
+        if (count > buffer.remaining()) {
+            flush();
+        }
+        if (count >= BUFFER_SIZE) {
+            while (src.hasRemaining()) {
+                channel.write(src);
+            }
+        } else {
+            buffer.put(src);
+        }
+        return count;
+    }
+
+    /**
+     * Изпраща натрупаните байтове и прехвърля байтовете от {@code source}
+     * направо във файла.
+     */
+    @Override
+    public void transferFrom(FileChannel source, long position, long count) throws IOException {
+        flush();
+        while (count > 0) {
+            long transferred = source.transferTo(position, count, channel);
+            if (transferred <= 0) {
+                throw new IOException("Source file is shorter than expected");
+            }
+            position += transferred;
+            count -= transferred;
+        }
+    }
+
+    /**
+     * Изпраща натрупаните байтове към файла.
+     * @throws IOException при грешка при запис
+     */
+    public void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    private void writeHeader(String magicNumber, int width, int height, int maxValue,
+                             String separator) throws IOException {
+        String header = magicNumber + separator + width + " " + height + separator
+                + (maxValue > 0 ? maxValue + separator : "");
+        write(ByteBuffer.wrap(header.getBytes(StandardCharsets.US_ASCII)));
+    }
+
+    /**
+     * Записва десетичния запис на {@code value} (до 65535) от дадената позиция
+     * във вътрешния буфер.
+     * @return позицията след последната цифра
+     */
+    private int putDecimal(int value, int position) {
+        if (value < 1000) {
+            return putDigits(value, DIGIT_COUNTS[value], position);
+        }
+        int high = value / 1000;
+        position = putDigits(high, DIGIT_COUNTS[high], position);
+        return putDigits(value - high * 1000, 3, position);
+    }
+
+    private int putDigits(int value, int count, int position) {
+        System.arraycopy(DIGITS, value * 3 + 3 - count, bytes, position, count);
+        return position + count;
+    }
+
+    /**
+     * Проверява дали каналът е отворен.
+     * @return true, ако каналът е отворен
+     */
+    @Override
+    public boolean isOpen() {
+        return channel.isOpen();
+    }
+
+    /**
+     * Завършва записа: изпраща натрупаните байтове и затваря файла. Файл,
+     * отворен с {@link #open(File)}, замества целевия.
+     * @throws IOException при грешка при запис, затваряне или преместване
+     */
+    public void commit() throws IOException {
+        flush();
+        channel.close();
+        if (temporary != null) {
+            Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+        committed = true;
+    }
+
+    /**
+     * Затваря файла. Ако записът не е завършен с {@link #commit()}, временният
+     * файл се изтрива и целевият остава непроменен. Записвач върху канал
+     * изпраща натрупаните байтове, преди да го затвори.
+     * @throws IOException при грешка при запис или затваряне
+     */
+    @Override
+    public void close() throws IOException {
+        if (committed) {
+            return;
+        }
+        if (temporary == null) {
+            try {
+                flush();
+            } finally {
+                channel.close();
+            }
+            return;
+        }
+        try {
+            channel.close();
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+}
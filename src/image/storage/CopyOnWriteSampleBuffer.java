@@ -0,0 +1,306 @@
+package image.storage;
+
+import java.io.IOException;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+
+/**
+ * Буфер, разделен на ленти, които копията му споделят, докато някое от тях
+ * не пише в тях. Така копирането ({@link #copy()}) струва по една препратка
+ * на лента, а при запис се копира само засегнатата лента.
+ * <p>
+ * Всяка лента е поредица от семпли в друг буфер (с отместване): в началото
+ * в буфера, от който е създаден този, а след първия запис - в собствен буфер
+ * с дължината на лентата. Лента, която не е собствена, не се променя, докато
+ * някой я чете. При копиране и двата буфера губят собствеността си над всички
+ * ленти, така че първият запис във всеки от тях създава ново копие.
+ * </p>
+ * <p>
+ * Операциите върху пиксели се изпълняват паралелно по ленти (вж.
+ * {@link ParallelBands}), като всяка лента се копира от нишката, която пише
+ * в нея. Операциите, които местят пиксели, първо събират лентите в един буфер.
+ * </p>
+ */
+final class CopyOnWriteSampleBuffer extends SampleBuffer {
+    /**
+     * Дължина на лента в семпли: 192 KB при 8-битови семпли. Кратна е на
+     * {@link ParallelBands#BAND_ALIGNMENT}, така че лента не разделя RGB пиксел
+     * или дума в битов буфер.
+     */
+    private static final int BAND_LENGTH = ParallelBands.BAND_ALIGNMENT << 10;
+
+    private final long length;
+    private final int maxSupportedValue;
+    private final SampleBuffer[] bands;
+    private final long[] offsets;
+    private final boolean[] owned;
+
+    /**
+     * Създава буфер, чиито ленти четат от {@code source}. Източникът не трябва
+     * да се променя повече.
+     * @param source буферът със семплите
+     */
+    CopyOnWriteSampleBuffer(SampleBuffer source) {
+        this.length = source.length();
+        this.maxSupportedValue = source.maxSupportedValue();
+        int count = (int) ((length + BAND_LENGTH - 1) / BAND_LENGTH);
+        this.bands = new SampleBuffer[count];
+        this.offsets = new long[count];
+        this.owned = new boolean[count];
+        for (int band = 0; band < count; band++) {
+            bands[band] = source;
+            offsets[band] = (long) band * BAND_LENGTH;
+        }
+    }
+
+    private CopyOnWriteSampleBuffer(CopyOnWriteSampleBuffer other) {
+        this.length = other.length;
+        this.maxSupportedValue = other.maxSupportedValue;
+        this.bands = other.bands.clone();
+        this.offsets = other.offsets.clone();
+        this.owned = new boolean[bands.length];
+    }
+
+    @Override
+    public long length() {
+        return length;
+    }
+
+    @Override
+    public int maxSupportedValue() {
+        return maxSupportedValue;
+    }
+
+    @Override
+    public int get(long index) {
+        int band = (int) (index / BAND_LENGTH);
+        return bands[band].get(offsets[band] + index - (long) band * BAND_LENGTH);
+    }
+
+    @Override
+    public void set(long index, int value) {
+        int band = (int) (index / BAND_LENGTH);
+        own(band).set(index - (long) band * BAND_LENGTH, value);
+    }
+
+    /**
+     * Създава копие, което споделя всички ленти с този буфер.
+     */
+    @Override
+    public SampleBuffer copy() {
+        Arrays.fill(owned, false);
+        return new CopyOnWriteSampleBuffer(this);
+    }
+
+    @Override
+    public SampleBuffer copyOnWrite() {
+        return this;
+    }
+
+    /**
+     * Новите ленти се създават като първата, така че остават в паметта,
+     * в която е бил буферът, от който е създаден този.
+     */
+    @Override
+    protected SampleBuffer allocateLike(long length, int maxValue) {
+        return bands.length > 0 ? bands[0].allocateLike(length, maxValue) : super.allocateLike(length, maxValue);
+    }
+
+    @Override
+    public void getRange(long offset, int[] dst, int dstOffset, int count) {
+        while (count > 0) {
+            int band = (int) (offset / BAND_LENGTH);
+            int start = (int) (offset - (long) band * BAND_LENGTH);
+            int n = Math.min(count, BAND_LENGTH - start);
+            bands[band].getRange(offsets[band] + start, dst, dstOffset, n);
+            offset += n;
+            dstOffset += n;
+            count -= n;
+        }
+    }
+
+    @Override
+    public void setRange(long offset, int[] src, int srcOffset, int count) {
+        while (count > 0) {
+            int band = (int) (offset / BAND_LENGTH);
+            int start = (int) (offset - (long) band * BAND_LENGTH);
+            int n = Math.min(count, BAND_LENGTH - start);
+            own(band).setRange(start, src, srcOffset, n);
+            offset += n;
+            srcOffset += n;
+            count -= n;
+        }
+    }
+
+    @Override
+    public void copyRange(long srcPos, SampleBuffer dst, long dstPos, long count) {
+        while (count > 0) {
+            int band = (int) (srcPos / BAND_LENGTH);
+            int start = (int) (srcPos - (long) band * BAND_LENGTH);
+            int n = (int) Math.min(count, BAND_LENGTH - start);
+            bands[band].copyRange(offsets[band] + start, dst, dstPos, n);
+            srcPos += n;
+            dstPos += n;
+            count -= n;
+        }
+    }
+
+    /**
+     * Копира правоъгълника на отсечки от редове, които четат от една лента,
+     * така че всяка отсечка минава през бързото копиране на лентата.
+     */
+    @Override
+    protected void copyTile(SampleBuffer dst, int dstWidth, int samplesPerPixel,
+                            long srcBase, long srcStepX, long srcStepY, int x0, int x1, int y0, int y1) {
+        int pixelsPerBand = BAND_LENGTH / samplesPerPixel;
+        for (int y = y0; y < y1; y++) {
+            for (int x = x0; x < x1; ) {
+                long pixel = srcBase + x * srcStepX + y * srcStepY;
+                int band = (int) (pixel / pixelsPerBand);
+                long first = (long) band * pixelsPerBand;
+                long n;
+                if (srcStepX > 0) {
+                    n = (first + pixelsPerBand - pixel + srcStepX - 1) / srcStepX;
+                } else if (srcStepX < 0) {
+                    n = (pixel - first) / -srcStepX + 1;
+                } else {
+                    n = x1 - x;
+                }
+                int count = (int) Math.min(n, x1 - x);
+                long shift = first - offsets[band] / samplesPerPixel;
+                bands[band].copyTile(dst, dstWidth, samplesPerPixel, srcBase - shift, srcStepX, srcStepY,
+                        x, x + count, y, y + 1);
+                x += count;
+            }
+        }
+    }
+
+    /**
+     * Събира лентите в един буфер и завърта него.
+     */
+    @Override
+    public SampleBuffer rotate(int width, int height, int samplesPerPixel, int quarterTurns) {
+        if (quarterTurns == 0) {
+            return this;
+        }
+        return flatten().rotate(width, height, samplesPerPixel, quarterTurns);
+    }
+
+    /**
+     * Събира лентите в един буфер и обръща него.
+     */
+    @Override
+    public SampleBuffer flipHorizontal(int width, int height, int samplesPerPixel) {
+        return flatten().flipHorizontal(width, height, samplesPerPixel);
+    }
+
+    @Override
+    public void invert(int maxValue) {
+        forEachBand((band, from, to) -> band.invert(from, to, maxValue));
+    }
+
+    @Override
+    public void threshold(int threshold, int maxValue) {
+        forEachBand((band, from, to) -> band.threshold(from, to, threshold, maxValue));
+    }
+
+    @Override
+    public void applyLookupTable(int[] table) {
+        forEachBand((band, from, to) -> band.applyLookupTable(from, to, table));
+    }
+
+    @Override
+    public void mixChannels(PixelKernel kernel) {
+        forEachBand((band, from, to) -> band.mixChannels(from, to, kernel));
+    }
+
+    @Override
+    public void luminance(int redPercent, int greenPercent, int bluePercent) {
+        forEachBand((band, from, to) -> band.luminance(from, to, redPercent, greenPercent, bluePercent));
+    }
+
+    /**
+     * Записва лентите една по една. Лента, която не заема цял собствен буфер
+     * и не може да се запише направо от буфера, в който е, първо се копира
+     * в междинен буфер.
+     */
+    @Override
+    public void writeSamples(WritableByteChannel channel, int bytesPerSample) throws IOException {
+        SampleBuffer scratch = null;
+        for (int band = 0; band < bands.length; band++) {
+            int bandLength = bandLength(band);
+            SampleBuffer samples = bands[band];
+            if (offsets[band] != 0 || samples.length() != bandLength) {
+                if (samples.writeSamplesDirect(channel, bytesPerSample, offsets[band], bandLength)) {
+                    continue;
+                }
+                if (scratch == null || scratch.length() != bandLength) {
+                    scratch = allocate(bandLength, maxSupportedValue);
+                }
+                samples.copyRange(offsets[band], scratch, 0, bandLength);
+                samples = scratch;
+            }
+            samples.writeSamples(channel, bytesPerSample);
+        }
+    }
+
+    /**
+     * Записва редовете един по един, като всеки първо се събира в междинен буфер.
+     */
+    @Override
+    public void writePackedRows(WritableByteChannel channel, int rowLength) throws IOException {
+        SampleBuffer row = allocate(rowLength, maxSupportedValue);
+        for (long start = 0; start < length; start += rowLength) {
+            copyRange(start, row, 0, rowLength);
+            row.writePackedRows(channel, rowLength);
+        }
+    }
+
+    /**
+     * Операция върху семплите {@code [from, to)} на собствения буфер на лента.
+     */
+    @FunctionalInterface
+    private interface BandOperation {
+        void apply(SampleBuffer band, int from, int to);
+    }
+
+    /**
+     * Прилага операцията върху всички ленти, паралелно за големи буфери.
+     * Всяка лента се обработва от една нишка, която при нужда първо я копира.
+     */
+    private void forEachBand(BandOperation operation) {
+        ParallelBands.forEach(bands.length, 1, BAND_LENGTH, (from, to) -> {
+            for (int band = (int) from; band < to; band++) {
+                operation.apply(own(band), 0, bandLength(band));
+            }
+        });
+    }
+
+    /**
+     * Връща собствения буфер на лентата, като я копира, ако все още е споделена.
+     */
+    private SampleBuffer own(int band) {
+        if (!owned[band]) {
+            int bandLength = bandLength(band);
+            SampleBuffer samples = allocateLike(bandLength, maxSupportedValue);
+            bands[band].copyRange(offsets[band], samples, 0, bandLength);
+            bands[band] = samples;
+            offsets[band] = 0;
+            owned[band] = true;
+        }
+        return bands[band];
+    }
+
+    private int bandLength(int band) {
+        return (int) Math.min(BAND_LENGTH, length - (long) band * BAND_LENGTH);
+    }
+
+    /**
+     * Копира всички ленти в нов обикновен буфер.
+     */
+    private SampleBuffer flatten() {
+        SampleBuffer flat = allocateLike(length, maxSupportedValue);
+        copyRange(0, flat, 0, length);
+        return flat;
+    }
+}
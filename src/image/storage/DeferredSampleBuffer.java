@@ -0,0 +1,417 @@
+package image.storage;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Буфер, чиито семпли остават във файла, докато някоя операция не се нуждае
+ * от тях. Така веригата "зареждане, трансформации на пиксели, запис" може да
+ * мине през изображението ред по ред и паметта да не зависи от височината му.
+ * <p>
+ * Трансформациите на пиксели ({@link #invert(int)}, {@link #threshold(int, int)},
+ * {@link #applyLookupTable(int[])}, {@link #mixChannels(PixelKernel)},
+ * {@link #luminance(int, int, int)}) не се изпълняват веднага, а се
+ * запомнят. При запис във файл растерът се чете на ивици от цели редове
+ * (около 64K семпли), върху всяка ивица се прилагат запомнените
+ * трансформации и тя се записва веднага. Последователното четене
+ * от началото с {@link #getRange} (текстов запис) минава по същия начин.
+ * </p>
+ * <p>
+ * Всяка друга операция - произволен достъп, запис в буфера, завъртане - първо
+ * прочита целия растер в буфер от хранилището на изображението (на плочки, ако
+ * е по-голям от heap-а) и прилага запомнените трансформации върху него. Оттам
+ * нататък буферът само препраща към прочетения.
+ * </p>
+ * <p>
+ * Изображенията записват поточно само при {@code save stream}. Всеки друг
+ * запис първо прочита растера с {@link #materialized()}, за да не зависи
+ * изображението от файла след това.
+ * </p>
+ */
+public final class DeferredSampleBuffer extends SampleBuffer {
+    /**
+     * Приблизителен брой семпли в ивица при поточна обработка.
+     */
+    private static final int STRIP_SAMPLES = 1 << 16;
+
+    /**
+     * Растерът на изображение във файл.
+     */
+    public interface Source {
+        /**
+         * Прочита целия растер в нов буфер.
+         * @return буферът със семплите
+         * @throws IOException при грешка при четене или невалидни данни
+         */
+        SampleBuffer readAll() throws IOException;
+
+        /**
+         * Отваря растера за последователно четене от началото.
+         * @return четецът
+         * @throws IOException ако файлът не може да бъде отворен
+         */
+        Reader open() throws IOException;
+    }
+
+    /**
+     * Последователен четец на растер.
+     */
+    public interface Reader extends Closeable {
+        /**
+         * Попълва целия {@code dst} със следващите семпли от растера.
+         * @param dst буферът, чиято дължина е цял брой редове
+         * @throws IOException при грешка при четене или невалидни данни
+         */
+        void read(SampleBuffer dst) throws IOException;
+    }
+
+    private final int rowLength;
+    private final int rows;
+    private final int maxValue;
+    private Source source;
+    private final List<Consumer<SampleBuffer>> operations;
+    private volatile SampleBuffer loaded;
+
+    private Reader reader;
+    private SampleBuffer strip;
+    private long stripStart;
+    private long stripEnd;
+
+    /**
+     * Създава буфер върху растер във файл.
+     *
+     * @param rowLength брой семпли в ред
+     * @param rows брой редове
+     * @param maxValue най-голямата стойност на семпъл в растера
+     * @param source растерът
+     */
+    public DeferredSampleBuffer(int rowLength, int rows, int maxValue, Source source) {
+        this(rowLength, rows, maxValue, source, new ArrayList<>());
+    }
+
+    private DeferredSampleBuffer(int rowLength, int rows, int maxValue, Source source,
+                                 List<Consumer<SampleBuffer>> operations) {
+        this.rowLength = rowLength;
+        this.rows = rows;
+        this.maxValue = maxValue;
+        this.source = source;
+        this.operations = operations;
+    }
+
+    @Override
+    public long length() {
+        return (long) rowLength * rows;
+    }
+
+    @Override
+    public int maxSupportedValue() {
+        return maxValue <= 1 ? 1 : maxValue <= 0xFF ? 0xFF : 0xFFFF;
+    }
+
+    @Override
+    public int get(long index) {
+        return loaded().get(index);
+    }
+
+    @Override
+    public void set(long index, int value) {
+        loaded().set(index, value);
+    }
+
+    /**
+     * Докато растерът не е прочетен, копието е друг отложен буфер върху
+     * същия файл със същите запомнени трансформации.
+     */
+    @Override
+    public SampleBuffer copy() {
+        SampleBuffer samples = loaded;
+        if (samples != null) {
+            return samples.copy();
+        }
+        synchronized (this) {
+            if (loaded != null) {
+                return loaded.copy();
+            }
+            return new DeferredSampleBuffer(rowLength, rows, maxValue, source, new ArrayList<>(operations));
+        }
+    }
+
+    @Override
+    public SampleBuffer materialized() {
+        return loaded();
+    }
+
+    @Override
+    public SampleBuffer copyOnWrite() {
+        SampleBuffer samples = loaded;
+        return samples != null ? samples.copyOnWrite() : this;
+    }
+
+    @Override
+    protected SampleBuffer allocateLike(long length, int maxValue) {
+        return loaded().allocateLike(length, maxValue);
+    }
+
+    @Override
+    public void getRange(long offset, int[] dst, int dstOffset, int count) {
+        if (count == 0 || (loaded == null && streamRange(offset, dst, dstOffset, count))) {
+            return;
+        }
+        loaded().getRange(offset, dst, dstOffset, count);
+    }
+
+    @Override
+    public void setRange(long offset, int[] src, int srcOffset, int count) {
+        loaded().setRange(offset, src, srcOffset, count);
+    }
+
+    @Override
+    public SampleBuffer rotate(int width, int height, int samplesPerPixel, int quarterTurns) {
+        return loaded().rotate(width, height, samplesPerPixel, quarterTurns);
+    }
+
+    @Override
+    SampleBuffer remappedCopy(int dstWidth, int dstHeight, int samplesPerPixel,
+                              long srcBase, long srcStepX, long srcStepY) {
+        return loaded().remappedCopy(dstWidth, dstHeight, samplesPerPixel, srcBase, srcStepX, srcStepY);
+    }
+
+    @Override
+    public SampleBuffer flipHorizontal(int width, int height, int samplesPerPixel) {
+        return loaded().flipHorizontal(width, height, samplesPerPixel);
+    }
+
+    @Override
+    protected void copyTile(SampleBuffer dst, int dstWidth, int samplesPerPixel,
+                            long srcBase, long srcStepX, long srcStepY, int x0, int x1, int y0, int y1) {
+        loaded().copyTile(dst, dstWidth, samplesPerPixel, srcBase, srcStepX, srcStepY, x0, x1, y0, y1);
+    }
+
+    @Override
+    public void copyRange(long srcPos, SampleBuffer dst, long dstPos, long count) {
+        loaded().copyRange(srcPos, dst, dstPos, count);
+    }
+
+    @Override
+    public void invert(int maxValue) {
+        defer(samples -> samples.invert(maxValue));
+    }
+
+    @Override
+    protected void invert(long from, long to, int maxValue) {
+        loaded().invert(from, to, maxValue);
+    }
+
+    @Override
+    public void threshold(int threshold, int maxValue) {
+        defer(samples -> samples.threshold(threshold, maxValue));
+    }
+
+    @Override
+    protected void threshold(long from, long to, int threshold, int maxValue) {
+        loaded().threshold(from, to, threshold, maxValue);
+    }
+
+    @Override
+    public void applyLookupTable(int[] table) {
+        defer(samples -> samples.applyLookupTable(table));
+    }
+
+    @Override
+    protected void applyLookupTable(long from, long to, int[] table) {
+        loaded().applyLookupTable(from, to, table);
+    }
+
+    @Override
+    public void mixChannels(PixelKernel kernel) {
+        defer(samples -> samples.mixChannels(kernel));
+    }
+
+    @Override
+    protected void mixChannels(long from, long to, PixelKernel kernel) {
+        loaded().mixChannels(from, to, kernel);
+    }
+
+    @Override
+    public void luminance(int redPercent, int greenPercent, int bluePercent) {
+        defer(samples -> samples.luminance(redPercent, greenPercent, bluePercent));
+    }
+
+    @Override
+    protected void luminance(long from, long to, int redPercent, int greenPercent, int bluePercent) {
+        loaded().luminance(from, to, redPercent, greenPercent, bluePercent);
+    }
+
+    @Override
+    public int maxSample() {
+        return loaded().maxSample();
+    }
+
+    @Override
+    public void readSamples(ReadableByteChannel channel, int bytesPerSample) throws IOException {
+        loaded().readSamples(channel, bytesPerSample);
+    }
+
+    @Override
+    public void readPackedRows(ReadableByteChannel channel, int rowLength) throws IOException {
+        loaded().readPackedRows(channel, rowLength);
+    }
+
+    @Override
+    public void writeSamples(WritableByteChannel channel, int bytesPerSample) throws IOException {
+        SampleBuffer samples = loaded;
+        if (samples != null) {
+            samples.writeSamples(channel, bytesPerSample);
+            return;
+        }
+        try (Reader stream = source.open()) {
+            for (int row = 0; row < rows; ) {
+                SampleBuffer next = readStrip(stream, row);
+                next.writeSamples(channel, bytesPerSample);
+                row += (int) (next.length() / rowLength);
+            }
+        }
+    }
+
+    @Override
+    protected boolean writeSamplesDirect(WritableByteChannel channel, int bytesPerSample,
+                                         long offset, long count) throws IOException {
+        return loaded().writeSamplesDirect(channel, bytesPerSample, offset, count);
+    }
+
+    @Override
+    public void writePackedRows(WritableByteChannel channel, int rowLength) throws IOException {
+        SampleBuffer samples = loaded;
+        if (samples != null) {
+            samples.writePackedRows(channel, rowLength);
+            return;
+        }
+        try (Reader stream = source.open()) {
+            for (int row = 0; row < rows; ) {
+                SampleBuffer next = readStrip(stream, row);
+                next.writePackedRows(channel, rowLength);
+                row += (int) (next.length() / this.rowLength);
+            }
+        }
+    }
+
+    /**
+     * Запомня трансформация на пиксели или я изпълнява, ако растерът вече е прочетен.
+     */
+    private synchronized void defer(Consumer<SampleBuffer> operation) {
+        if (loaded != null) {
+            operation.accept(loaded);
+            return;
+        }
+        closeStream();
+        operations.add(operation);
+    }
+
+    /**
+     * Прочита следващата ивица, започваща от ред {@code row}, и прилага
+     * запомнените трансформации върху нея.
+     */
+    private SampleBuffer readStrip(Reader stream, int row) throws IOException {
+        int stripRows = Math.min(rows - row, Math.max(1, STRIP_SAMPLES / rowLength));
+        SampleBuffer samples = allocate(stripRows * rowLength, maxValue);
+        stream.read(samples);
+        for (Consumer<SampleBuffer> operation : operations) {
+            operation.accept(samples);
+        }
+        return samples;
+    }
+
+    /**
+     * Чете семплите при последователен достъп ивица по ивица, като при нужда
+     * отваря растера отначало. Ивицата се пази до следващото извикване, а
+     * растерът се затваря, когато бъде прочетен до края.
+     *
+     * @return false, ако достъпът не е последователен и растерът трябва да се прочете целият
+     */
+    private synchronized boolean streamRange(long offset, int[] dst, int dstOffset, int count) {
+        if (loaded != null) {
+            return false;
+        }
+        if (reader == null || offset < stripStart) {
+            if (offset != 0) {
+                return false;
+            }
+            closeStream();
+            try {
+                reader = source.open();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        try {
+            while (count > 0) {
+                while (offset >= stripEnd) {
+                    strip = readStrip(reader, (int) (stripEnd / rowLength));
+                    stripStart = stripEnd;
+                    stripEnd += strip.length();
+                }
+                int n = (int) Math.min(count, stripEnd - offset);
+                strip.getRange(offset - stripStart, dst, dstOffset, n);
+                offset += n;
+                dstOffset += n;
+                count -= n;
+            }
+        } catch (IOException e) {
+            closeStream();
+            throw new UncheckedIOException(e);
+        }
+        if (offset == length()) {
+            closeStream();
+        }
+        return true;
+    }
+
+    private synchronized void closeStream() {
+        if (reader != null) {
+            try {
+                reader.close();
+            } catch (IOException ignored) {
+                // растерът само се чете, затова при затваряне няма какво да се загуби
+            }
+        }
+        reader = null;
+        strip = null;
+        stripStart = 0;
+        stripEnd = 0;
+    }
+
+    /**
+     * Връща прочетения растер, като при първото извикване го прочита целия и
+     * прилага запомнените трансформации. След това буферът не пази растера във
+     * файла, за да може файлът да се затвори, когато никой друг не го чете.
+     */
+    private SampleBuffer loaded() {
+        SampleBuffer samples = loaded;
+        if (samples != null) {
+            return samples;
+        }
+        synchronized (this) {
+            if (loaded == null) {
+                closeStream();
+                try {
+                    samples = source.readAll();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                for (Consumer<SampleBuffer> operation : operations) {
+                    operation.accept(samples);
+                }
+                operations.clear();
+                loaded = samples;
+                source = null;
+            }
+            return loaded;
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package image.storage;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Изпълнява масови операции върху буфер паралелно, като го разделя на
+ * непрекъснати ленти. Пикселите са подредени ред по ред, затова всяка лента
+ * е поредица от редове (или части от ред) на изображението.
+ * <p>
+ * Броят нишки се задава със системното свойство {@code raster.parallelism}
+ * (по подразбиране броят процесори), а най-малкият размер на лента в семпли -
+ * с {@code raster.parallelThreshold}. Буфер, по-малък от прага, или
+ * паралелизъм 1 означават последователно изпълнение в текущата нишка.
+ * </p>
+ * <p>
+ * Границите на лентите са кратни на {@link #BAND_ALIGNMENT}: не разделят
+ * RGB пиксел и не попадат в средата на дума от {@code long} в битов буфер,
+ * така че различни нишки никога не пишат в един и същ елемент на масив
+ * и резултатът е същият като при последователно изпълнение.
+ * </p>
+ */
+final class ParallelBands {
+    /**
+     * Кратно на 3 (семпли в RGB пиксел) и на 64 (битове в дума).
+     */
+    static final int BAND_ALIGNMENT = 192;
+
+    private static final int PARALLELISM =
+            Math.max(1, Integer.getInteger("raster.parallelism", Runtime.getRuntime().availableProcessors()));
+    private static final int THRESHOLD =
+            Math.max(BAND_ALIGNMENT, Integer.getInteger("raster.parallelThreshold", 1 << 18));
+
+    private static final ForkJoinPool POOL = PARALLELISM > 1 ? new ForkJoinPool(PARALLELISM) : null;
+
+    /**
+     * Операция върху лента {@code [from, to)}.
+     */
+    @FunctionalInterface
+    interface Band {
+        void apply(long from, long to);
+    }
+
+    private ParallelBands() {
+    }
+
+    /**
+     * Прилага {@code band} върху семплите от 0 до {@code length}, паралелно,
+     * ако буферът е достатъчно голям.
+     * @param length брой семпли
+     * @param band операцията върху лента
+     */
+    static void forEach(long length, Band band) {
+        forEach(length, BAND_ALIGNMENT, 1, band);
+    }
+
+    /**
+     * Прилага {@code band} върху единиците от 0 до {@code count} (например
+     * редове), паралелно, ако общият брой семпли е достатъчно голям.
+     * @param count брой единици
+     * @param alignment границите на лентите са кратни на това число
+     * @param samplesPerUnit брой семпли в единица
+     * @param band операцията върху лента
+     */
+    static void forEach(long count, int alignment, int samplesPerUnit, Band band) {
+        int minUnits = Math.max(alignment, THRESHOLD / Math.max(1, samplesPerUnit));
+        if (POOL == null || count < 2 * minUnits) {
+            band.apply(0, count);
+            return;
+        }
+        POOL.invoke(new Split(0, count, alignment, minUnits, band));
+    }
+
+    /**
+     * Задачите не се сериализират, затова операцията не е част от сериализираната форма.
+     */
+    private static final class Split extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final long from;
+        private final long to;
+        private final int alignment;
+        private final int minUnits;
+        private final transient Band band;
+
+        Split(long from, long to, int alignment, int minUnits, Band band) {
+            this.from = from;
+            this.to = to;
+            this.alignment = alignment;
+            this.minUnits = minUnits;
+            this.band = band;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from < 2 * minUnits) {
+                band.apply(from, to);
+                return;
+            }
+            long middle = from + ((to - from) / 2 / alignment) * alignment;
+            invokeAll(new Split(from, middle, alignment, minUnits, band),
+                    new Split(middle, to, alignment, minUnits, band));
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package image.storage;
+
+/**
+ * Операция върху един RGB пиксел, чийто резултат се записва във всичките
+ * три канала. Изпълнява се директно върху семплите в буфера, без междинни масиви.
+ */
+@FunctionalInterface
+public interface PixelKernel {
+    /**
+     * Пресмята новата стойност на пиксела.
+     * @param red червеният канал
+     * @param green зеленият канал
+     * @param blue синият канал
+     * @return стойността, която се записва в трите канала
+     */
+    int apply(int red, int green, int blue);
+
+    /**
+     * Претеглената сума на каналите с тегла в стотни, отрязана до цяло число:
+     * {@code (int) (redPercent / 100.0 * red + greenPercent / 100.0 * green + bluePercent / 100.0 * blue)}.
+     * Тъй като {@code 30 / 100.0 == 0.3}, това е същото като израза с десетичните
+     * тегла, например {@code (int) (0.3 * r + 0.59 * g + 0.11 * b)}.
+     * <p>
+     * Сумата се пресмята с цели числа и се дели на 100. Двата начина се
+     * различават само когато сумата е кратна на 100: точният резултат тогава е
+     * цяло число, а сборът в {@code double} може да излезе малко под него и да
+     * се отреже надолу. Затова само в този случай се пресмята изразът с {@code double}.
+     * </p>
+     *
+     * @param red червеният канал
+     * @param green зеленият канал
+     * @param blue синият канал
+     * @param redPercent теглото на червения канал в стотни
+     * @param greenPercent теглото на зеления канал в стотни
+     * @param bluePercent теглото на синия канал в стотни
+     * @return яркостта на пиксела
+     */
+    static int luminance(int red, int green, int blue, int redPercent, int greenPercent, int bluePercent) {
+        int sum = red * redPercent + green * greenPercent + blue * bluePercent;
+        int value = sum / 100;
+        if (value * 100 != sum) {
+            return value;
+        }
+        return (int) (redPercent / 100.0 * red + greenPercent / 100.0 * green + bluePercent / 100.0 * blue);
+    }
+}
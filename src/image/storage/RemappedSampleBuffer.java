@@ -0,0 +1,143 @@
+package image.storage;
+
+import java.io.IOException;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Изглед към друг буфер с пренаредени пиксели, без копиране: пиксел (x, y)
+ * от изгледа е пиксел {@code srcBase + x * srcStepX + y * srcStepY} от източника.
+ * Така се представят завъртанията и огледалните обръщания, докато не се наложи
+ * пикселите наистина да се пренаредят.
+ * <p>
+ * Масовото четене (при запис във файл) минава ред по ред, като всеки ред
+ * се събира във временен буфер от типа на източника. Операциите върху
+ * пиксели не зависят от позицията им и се прилагат директно върху източника.
+ * </p>
+ */
+final class RemappedSampleBuffer extends SampleBuffer {
+    private final SampleBuffer source;
+    private final int width;
+    private final int height;
+    private final int samplesPerPixel;
+    private final long srcBase;
+    private final long srcStepX;
+    private final long srcStepY;
+
+    RemappedSampleBuffer(SampleBuffer source, int width, int samplesPerPixel,
+                         long srcBase, long srcStepX, long srcStepY) {
+        this.source = source;
+        this.width = width;
+        this.height = (int) (source.length() / samplesPerPixel / width);
+        this.samplesPerPixel = samplesPerPixel;
+        this.srcBase = srcBase;
+        this.srcStepX = srcStepX;
+        this.srcStepY = srcStepY;
+    }
+
+    @Override
+    public long length() {
+        return source.length();
+    }
+
+    @Override
+    public int maxSupportedValue() {
+        return source.maxSupportedValue();
+    }
+
+    @Override
+    public int get(long index) {
+        return source.get(sourceIndex(index));
+    }
+
+    @Override
+    public void set(long index, int value) {
+        source.set(sourceIndex(index), value);
+    }
+
+    /**
+     * Създава независимо копие с пренаредените пиксели.
+     */
+    @Override
+    public SampleBuffer copy() {
+        return source.remappedCopy(width, height, samplesPerPixel, srcBase, srcStepX, srcStepY);
+    }
+
+    @Override
+    public void invert(int maxValue) {
+        source.invert(maxValue);
+    }
+
+    @Override
+    public void threshold(int threshold, int maxValue) {
+        source.threshold(threshold, maxValue);
+    }
+
+    @Override
+    public void applyLookupTable(int[] table) {
+        source.applyLookupTable(table);
+    }
+
+    @Override
+    public void mixChannels(PixelKernel kernel) {
+        source.mixChannels(kernel);
+    }
+
+    @Override
+    public void luminance(int redPercent, int greenPercent, int bluePercent) {
+        source.luminance(redPercent, greenPercent, bluePercent);
+    }
+
+    @Override
+    public int maxSample() {
+        return source.maxSample();
+    }
+
+    @Override
+    public void getRange(long offset, int[] dst, int dstOffset, int count) {
+        long pixel = offset / samplesPerPixel;
+        int channel = (int) (offset % samplesPerPixel);
+        int x = (int) (pixel % width);
+        int y = (int) (pixel / width);
+        long src = srcBase + x * srcStepX + y * srcStepY;
+        for (int i = 0; i < count; i++) {
+            dst[dstOffset + i] = source.get(src * samplesPerPixel + channel);
+            if (++channel == samplesPerPixel) {
+                channel = 0;
+                src += srcStepX;
+                if (++x == width) {
+                    x = 0;
+                    src = srcBase + ++y * srcStepY;
+                }
+            }
+        }
+    }
+
+    @Override
+    public void writeSamples(WritableByteChannel channel, int bytesPerSample) throws IOException {
+        SampleBuffer row = allocate(width * samplesPerPixel, maxSupportedValue());
+        for (int y = 0; y < height; y++) {
+            fillRow(row, y);
+            row.writeSamples(channel, bytesPerSample);
+        }
+    }
+
+    @Override
+    public void writePackedRows(WritableByteChannel channel, int rowLength) throws IOException {
+        SampleBuffer row = allocate(width * samplesPerPixel, maxSupportedValue());
+        for (int y = 0; y < height; y++) {
+            fillRow(row, y);
+            row.writePackedRows(channel, rowLength);
+        }
+    }
+
+    private void fillRow(SampleBuffer row, int y) {
+        source.copyTile(row, width, samplesPerPixel, srcBase + y * srcStepY, srcStepX, 0, 0, width, 0, 1);
+    }
+
+    private long sourceIndex(long index) {
+        long pixel = index / samplesPerPixel;
+        long x = pixel % width;
+        long y = pixel / width;
+        return (srcBase + x * srcStepX + y * srcStepY) * samplesPerPixel + index % samplesPerPixel;
+    }
+}
@@ -0,0 +1,778 @@
+package image.storage;
+
+import image.storage.impl.BitSampleBuffer;
+import image.storage.impl.ByteSampleBuffer;
+import image.storage.impl.ShortSampleBuffer;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Абстрактен базов клас за буферите, в които изображенията пазят семплите си.
+ * <p>
+ * Буферът е линеен масив от неотрицателни цели числа. Конкретната реализация
+ * се избира по максималната стойност, която трябва да побира: битове за 1,
+ * {@code byte} до 255 и {@code short} до 65535 (таванът на netpbm формата).
+ * Така типичното изображение с maxColorValue 255 заема четири пъти по-малко
+ * памет, отколкото при {@code int} семпли.
+ * </p>
+ * <p>
+ * Масовите операции имат обща реализация чрез {@link #get}/{@link #set},
+ * а наследниците ги предефинират с цикли директно върху своя масив.
+ * Операциите върху пиксели се изпълняват на ленти, паралелно за големи
+ * буфери (вж. {@link ParallelBands}), затова наследниците предефинират
+ * вариантите им с диапазон {@code [from, to)}.
+ * </p>
+ */
+public abstract class SampleBuffer {
+    /**
+     * Размер на междинния буфер при масово четене и запис.
+     */
+    protected static final int CHUNK_SIZE = 1 << 16;
+
+    /**
+     * Страна на квадратните блокове при завъртане, в пиксели. Блок от 64x64
+     * RGB пиксела с 8-битови семпли заема 12 KB и остава в L1 кеша, докато
+     * се копира. Лентите при паралелно завъртане са кратни на 64 реда, така
+     * че в битов буфер две нишки не пишат в една дума.
+     */
+    private static final int ROTATION_TILE = 64;
+
+    /**
+     * Най-дългият масив, който виртуалната машина заделя надеждно. Растер с
+     * повече семпли се пази на плочки, независимо от размера на heap-а.
+     */
+    static final int MAX_ARRAY_LENGTH = Integer.MAX_VALUE - 8;
+
+    /**
+     * Създава нулиран буфер с най-тесния тип, който побира {@code maxValue}.
+     *
+     * @param length брой семпли
+     * @param maxValue най-голямата стойност, която ще се пази в буфера
+     * @return новият буфер
+     */
+    public static SampleBuffer allocate(int length, int maxValue) {
+        if (maxValue <= 1) {
+            return new BitSampleBuffer(length);
+        }
+        if (maxValue <= 0xFF) {
+            return new ByteSampleBuffer(length);
+        }
+        return new ShortSampleBuffer(length);
+    }
+
+    /**
+     * Създава нулиран буфер за растер с дадените размери. Растер, по-голям
+     * от {@code raster.tiledThreshold} байта или с повече семпли, отколкото
+     * побира масив, се пази на плочки, които не стоят едновременно в паметта
+     * (вж. {@link TiledSampleBuffer}).
+     *
+     * @param width ширината на изображението
+     * @param height височината на изображението
+     * @param samplesPerPixel брой семпли в пиксел
+     * @param maxValue най-голямата стойност, която ще се пази в буфера
+     * @return новият буфер
+     */
+    public static SampleBuffer allocate(int width, int height, int samplesPerPixel, int maxValue) {
+        long length = (long) width * height * samplesPerPixel;
+        if (needsTiles(length, maxValue)) {
+            return new TiledSampleBuffer(width, height, samplesPerPixel, maxValue);
+        }
+        return allocate((int) length, maxValue);
+    }
+
+    /**
+     * Проверява дали растер с {@code length} семпли трябва да се пази на плочки.
+     */
+    static boolean needsTiles(long length, int maxValue) {
+        return length > MAX_ARRAY_LENGTH || byteSize(length, maxValue) > TiledSampleBuffer.THRESHOLD;
+    }
+
+    /**
+     * Връща броя на семплите в буфера.
+     * @return броят семпли
+     */
+    public abstract long length();
+
+    /**
+     * Връща най-голямата стойност, която буферът може да пази.
+     * @return 1, 255 или 65535 според типа на буфера
+     */
+    public abstract int maxSupportedValue();
+
+    /**
+     * Връща стойността на семпъл.
+     * @param index индекс на семпъла
+     * @return стойността му
+     */
+    public abstract int get(long index);
+
+    /**
+     * Задава стойността на семпъл.
+     * @param index индекс на семпъла
+     * @param value новата стойност
+     */
+    public abstract void set(long index, int value);
+
+    /**
+     * Създава независимо копие на буфера от същия тип.
+     * @return копие на буфера
+     */
+    public abstract SampleBuffer copy();
+
+    /**
+     * Създава нулиран буфер със същото разположение в паметта като този
+     * (например в същата арена извън heap-а), в който ще се пазят трайно
+     * семпли, получени от този буфер.
+     *
+     * @param length брой семпли
+     * @param maxValue най-голямата стойност, която ще се пази в буфера
+     * @return новият буфер
+     */
+    protected SampleBuffer allocateLike(long length, int maxValue) {
+        return allocate(Math.toIntExact(length), maxValue);
+    }
+
+    /**
+     * Връща буфер със същите семпли, чиито копия ({@link #copy()}) споделят
+     * паметта с него, докато някое от тях не пише в нея - тогава се копира само
+     * засегнатата лента (вж. {@link CopyOnWriteSampleBuffer}). След извикването
+     * този буфер не трябва да се променя повече.
+     *
+     * @return буферът с копиране при запис
+     */
+    public SampleBuffer copyOnWrite() {
+        return new CopyOnWriteSampleBuffer(this);
+    }
+
+    /**
+     * Връща буфер, чиито семпли са в паметта: този, или прочетения растер,
+     * ако семплите все още са във файла (вж. {@link DeferredSampleBuffer}).
+     *
+     * @return буферът със семплите в паметта
+     */
+    public SampleBuffer materialized() {
+        return this;
+    }
+
+    /**
+     * Връща буфер, който побира {@code maxValue}: този, ако е достатъчно широк,
+     * или разширено копие в противен случай.
+     *
+     * @param maxValue новата максимална стойност
+     * @return буфер със същите семпли, побиращ {@code maxValue}
+     */
+    public SampleBuffer widenTo(int maxValue) {
+        if (maxValue <= maxSupportedValue()) {
+            return this;
+        }
+        SampleBuffer wider = allocateLike(length(), maxValue);
+        copyRange(0, wider, 0, length());
+        return wider;
+    }
+
+    /**
+     * Копира поредица от семпли в {@code int} масив.
+     *
+     * @param offset начален семпъл в буфера
+     * @param dst масивът, в който се копира
+     * @param dstOffset начална позиция в {@code dst}
+     * @param count брой семпли
+     */
+    public void getRange(long offset, int[] dst, int dstOffset, int count) {
+        for (int i = 0; i < count; i++) {
+            dst[dstOffset + i] = get(offset + i);
+        }
+    }
+
+    /**
+     * Записва поредица от семпли от {@code int} масив.
+     *
+     * @param offset начален семпъл в буфера
+     * @param src масивът, от който се чете
+     * @param srcOffset начална позиция в {@code src}
+     * @param count брой семпли
+     */
+    public void setRange(long offset, int[] src, int srcOffset, int count) {
+        for (int i = 0; i < count; i++) {
+            set(offset + i, src[srcOffset + i]);
+        }
+    }
+
+    /**
+     * Прилага {@code kernel} върху всеки RGB пиксел на място: трите семпъла
+     * на пиксела се заменят с резултата. Буферът трябва да съдържа преплетени
+     * RGB семпли.
+     *
+     * @param kernel операцията върху пиксел
+     */
+    public void mixChannels(PixelKernel kernel) {
+        ParallelBands.forEach(length(), (from, to) -> mixChannels(from, to, kernel));
+    }
+
+    /**
+     * Прилага {@code kernel} върху пикселите в лента от буфера.
+     *
+     * @param from първият семпъл на лентата, кратен на 3
+     * @param to семпълът след края на лентата
+     * @param kernel операцията върху пиксел
+     */
+    protected void mixChannels(long from, long to, PixelKernel kernel) {
+        for (long k = from; k + 2 < to; k += 3) {
+            int value = kernel.apply(get(k), get(k + 1), get(k + 2));
+            set(k, value);
+            set(k + 1, value);
+            set(k + 2, value);
+        }
+    }
+
+    /**
+     * Завърта изображението по часовниковата стрелка.
+     * <p>
+     * Завъртането на 180 градуса и завъртането на квадратно изображение се
+     * извършват на място. Правоъгълно изображение се копира в нов буфер на
+     * квадратни блокове ({@link #rotatedCopy}), ако в heap-а има място за
+     * второ копие, а иначе се завърта на място чрез обхождане на циклите на
+     * пермутацията ({@link #rotateByCycles}) с допълнителна памет от един бит
+     * на пиксел.
+     * </p>
+     *
+     * @param width ширината на изображението
+     * @param height височината на изображението
+     * @param samplesPerPixel брой семпли в пиксел
+     * @param quarterTurns брой четвърт обороти (от 0 до 3)
+     * @return завъртяният буфер - този или нов
+     */
+    public SampleBuffer rotate(int width, int height, int samplesPerPixel, int quarterTurns) {
+        if (quarterTurns == 0) {
+            return this;
+        }
+        if (quarterTurns == 2) {
+            reversePixels(samplesPerPixel);
+            return this;
+        }
+        if (width == height) {
+            rotateSquare(width, samplesPerPixel, quarterTurns);
+            return this;
+        }
+        if (hasRoomForCopy()) {
+            return rotatedCopy(width, height, samplesPerPixel, quarterTurns);
+        }
+        rotateByCycles(width, height, samplesPerPixel, quarterTurns);
+        return this;
+    }
+
+    /**
+     * Създава нов буфер с изображението, завъртяно на 90 или 270 градуса.
+     * <p>
+     * Приемникът се обхожда на квадратни блокове, така че и четенето, и
+     * записът остават в малко на брой кеш линии, независимо от размера на
+     * изображението. Лентите от редове на приемника се обработват паралелно.
+     * </p>
+     *
+     * @param width ширината на изображението
+     * @param height височината на изображението
+     * @param samplesPerPixel брой семпли в пиксел
+     * @param quarterTurns 1 или 3
+     * @return завъртяният буфер
+     */
+    private SampleBuffer rotatedCopy(int width, int height, int samplesPerPixel, int quarterTurns) {
+        long srcBase = quarterTurns == 1 ? (height - 1L) * width : width - 1;
+        long srcStepX = quarterTurns == 1 ? -width : width;
+        long srcStepY = quarterTurns == 1 ? 1 : -1;
+        return remappedCopy(height, width, samplesPerPixel, srcBase, srcStepX, srcStepY);
+    }
+
+    /**
+     * Създава нов буфер, в който пиксел (x, y) е пиксел
+     * {@code srcBase + x * srcStepX + y * srcStepY} от този буфер.
+     * Приемникът се попълва на квадратни блокове, паралелно по ленти от редове.
+     *
+     * @param dstWidth ширината на новия буфер в пиксели
+     * @param dstHeight височината на новия буфер в пиксели
+     * @param samplesPerPixel брой семпли в пиксел
+     * @param srcBase пикселът от източника за (0, 0)
+     * @param srcStepX промяна на пиксела в източника при x + 1
+     * @param srcStepY промяна на пиксела в източника при y + 1
+     * @return новият буфер
+     */
+    SampleBuffer remappedCopy(int dstWidth, int dstHeight, int samplesPerPixel,
+                              long srcBase, long srcStepX, long srcStepY) {
+        SampleBuffer dst = allocateLike(length(), maxSupportedValue());
+        ParallelBands.forEach(dstHeight, ROTATION_TILE, dstWidth * samplesPerPixel, (fromRow, toRow) -> {
+            for (int y0 = (int) fromRow; y0 < toRow; y0 += ROTATION_TILE) {
+                int y1 = (int) Math.min(y0 + ROTATION_TILE, toRow);
+                for (int x0 = 0; x0 < dstWidth; x0 += ROTATION_TILE) {
+                    int x1 = Math.min(x0 + ROTATION_TILE, dstWidth);
+                    copyTile(dst, dstWidth, samplesPerPixel, srcBase, srcStepX, srcStepY, x0, x1, y0, y1);
+                }
+            }
+        });
+        return dst;
+    }
+
+    /**
+     * Връща изглед към този буфер, в който пиксел (x, y) е пиксел
+     * {@code srcBase + x * srcStepX + y * srcStepY} от този буфер. Изгледът
+     * не копира семплите: четенето и записът минават през този буфер,
+     * а {@link #copy()} създава пренаредено копие.
+     *
+     * @param dstWidth ширината на изгледа в пиксели
+     * @param samplesPerPixel брой семпли в пиксел
+     * @param srcBase пикселът от този буфер за (0, 0)
+     * @param srcStepX промяна на пиксела при x + 1
+     * @param srcStepY промяна на пиксела при y + 1
+     * @return изгледът
+     */
+    public SampleBuffer remapped(int dstWidth, int samplesPerPixel, long srcBase, long srcStepX, long srcStepY) {
+        return new RemappedSampleBuffer(this, dstWidth, samplesPerPixel, srcBase, srcStepX, srcStepY);
+    }
+
+    /**
+     * Обръща огледално всеки ред (огледално обръщане по хоризонтала).
+     *
+     * @param width ширината на изображението
+     * @param height височината на изображението
+     * @param samplesPerPixel брой семпли в пиксел
+     * @return обърнатият буфер - този или нов
+     */
+    public SampleBuffer flipHorizontal(int width, int height, int samplesPerPixel) {
+        ParallelBands.forEach(height, ROTATION_TILE, width * samplesPerPixel, (fromRow, toRow) -> {
+            for (long y = fromRow; y < toRow; y++) {
+                long row = y * width;
+                for (long k = row, m = row + width - 1; k < m; k++, m--) {
+                    for (int c = 0; c < samplesPerPixel; c++) {
+                        swap(k * samplesPerPixel + c, m * samplesPerPixel + c);
+                    }
+                }
+            }
+        });
+        return this;
+    }
+
+    /**
+     * Обръща реда на пикселите на място, което е завъртане на 180 градуса.
+     * @param samplesPerPixel брой семпли в пиксел
+     */
+    protected void reversePixels(int samplesPerPixel) {
+        long pixelCount = length() / samplesPerPixel;
+        for (long k = 0, m = pixelCount - 1; k < m; k++, m--) {
+            for (int c = 0; c < samplesPerPixel; c++) {
+                swap(k * samplesPerPixel + c, m * samplesPerPixel + c);
+            }
+        }
+    }
+
+    /**
+     * Завърта квадратно изображение на място, като върти по четири пиксела
+     * наведнъж - по един от всяка четвърт. Горната лява четвърт се обхожда
+     * на блокове, за да останат и четирите области в кеша.
+     *
+     * @param size страната на изображението
+     * @param samplesPerPixel брой семпли в пиксел
+     * @param quarterTurns 1 или 3
+     */
+    protected void rotateSquare(int size, int samplesPerPixel, int quarterTurns) {
+        int rows = size / 2;
+        int columns = (size + 1) / 2;
+        for (int y0 = 0; y0 < rows; y0 += ROTATION_TILE) {
+            for (int x0 = 0; x0 < columns; x0 += ROTATION_TILE) {
+                for (int y = y0; y < Math.min(y0 + ROTATION_TILE, rows); y++) {
+                    for (int x = x0; x < Math.min(x0 + ROTATION_TILE, columns); x++) {
+                        long a = ((long) y * size + x) * samplesPerPixel;
+                        long b = ((long) x * size + size - 1 - y) * samplesPerPixel;
+                        long c = ((long) (size - 1 - y) * size + size - 1 - x) * samplesPerPixel;
+                        long d = ((long) (size - 1 - x) * size + y) * samplesPerPixel;
+                        for (int i = 0; i < samplesPerPixel; i++) {
+                            if (quarterTurns == 1) {
+                                cycle(a + i, b + i, c + i, d + i);
+                            } else {
+                                cycle(d + i, c + i, b + i, a + i);
+                            }
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Завърта правоъгълно изображение на място. Пикселът на позиция {@code d}
+     * след завъртането идва от позиция {@code source(d)}; всеки цикъл на тази
+     * пермутация се обхожда веднъж, като се пази само един пиксел. Обходените
+     * позиции се отбелязват в битова маска - по един бит на пиксел.
+     *
+     * @param width ширината на изображението
+     * @param height височината на изображението
+     * @param samplesPerPixel брой семпли в пиксел
+     * @param quarterTurns 1 или 3
+     */
+    protected void rotateByCycles(int width, int height, int samplesPerPixel, int quarterTurns) {
+        long pixelCount = (long) width * height;
+        long[] visited = new long[(int) ((pixelCount + 63) >>> 6)];
+        int[] saved = new int[samplesPerPixel];
+
+        for (long start = 0; start < pixelCount; start++) {
+            if ((visited[(int) (start >>> 6)] & (1L << start)) != 0) {
+                continue;
+            }
+            for (int c = 0; c < samplesPerPixel; c++) {
+                saved[c] = get(start * samplesPerPixel + c);
+            }
+            long position = start;
+            while (true) {
+                visited[(int) (position >>> 6)] |= 1L << position;
+                long source = rotationSource(position, width, height, quarterTurns);
+                if (source == start) {
+                    break;
+                }
+                copyRange(source * samplesPerPixel, this, position * samplesPerPixel, samplesPerPixel);
+                position = source;
+            }
+            for (int c = 0; c < samplesPerPixel; c++) {
+                set(position * samplesPerPixel + c, saved[c]);
+            }
+        }
+    }
+
+    /**
+     * Връща позицията в изображението преди завъртането на пиксела, който
+     * след завъртане на 90 (1) или 270 (3) градуса е на позиция {@code position}.
+     */
+    private static long rotationSource(long position, int width, int height, int quarterTurns) {
+        long x = position % height;
+        long y = position / height;
+        return quarterTurns == 1 ? (height - 1 - x) * width + y : x * width + width - 1 - y;
+    }
+
+    private void swap(long i, long j) {
+        int tmp = get(i);
+        set(i, get(j));
+        set(j, tmp);
+    }
+
+    /**
+     * Премества стойностите в кръг: a отива на b, b на c, c на d и d на a.
+     */
+    private void cycle(long a, long b, long c, long d) {
+        int tmp = get(d);
+        set(d, get(c));
+        set(c, get(b));
+        set(b, get(a));
+        set(a, tmp);
+    }
+
+    /**
+     * Проверява дали в heap-а има място за второ копие на буфера, с резерв
+     * за останалата работа.
+     */
+    private boolean hasRoomForCopy() {
+        Runtime runtime = Runtime.getRuntime();
+        long used = runtime.totalMemory() - runtime.freeMemory();
+        long available = runtime.maxMemory() - used;
+        return available > 2 * byteSize(length(), maxSupportedValue());
+    }
+
+    /**
+     * Връща броя байтове, които заемат {@code length} семпли в буфер, който
+     * побира най-много {@code maxValue}.
+     */
+    static long byteSize(long length, int maxValue) {
+        if (maxValue <= 1) {
+            return (length + 7) / 8;
+        }
+        return maxValue <= 0xFF ? length : 2 * length;
+    }
+
+    /**
+     * Попълва правоъгълник от {@code dst} при завъртане. Пиксел (x, y)
+     * в приемника е пиксел {@code srcBase + x * srcStepX + y * srcStepY} от този буфер.
+     *
+     * @param dst приемникът
+     * @param dstWidth ширината на приемника в пиксели
+     * @param samplesPerPixel брой семпли в пиксел
+     * @param srcBase пикселът от източника за (0, 0)
+     * @param srcStepX промяна на пиксела в източника при x + 1
+     * @param srcStepY промяна на пиксела в източника при y + 1
+     * @param x0 първата колона на правоъгълника
+     * @param x1 колоната след края му
+     * @param y0 първият ред на правоъгълника
+     * @param y1 редът след края му
+     */
+    protected void copyTile(SampleBuffer dst, int dstWidth, int samplesPerPixel,
+                            long srcBase, long srcStepX, long srcStepY, int x0, int x1, int y0, int y1) {
+        for (int y = y0; y < y1; y++) {
+            long d = ((long) y * dstWidth + x0) * samplesPerPixel;
+            long p = srcBase + x0 * srcStepX + y * srcStepY;
+            for (int x = x0; x < x1; x++, p += srcStepX) {
+                long s = p * samplesPerPixel;
+                for (int c = 0; c < samplesPerPixel; c++) {
+                    dst.set(d++, get(s + c));
+                }
+            }
+        }
+    }
+
+    /**
+     * Копира поредица от семпли в друг буфер. Между буфери от един и същ тип
+     * копирането е директно копиране на масив. Източникът и приемникът не
+     * трябва да се припокриват.
+     *
+     * @param srcPos начален семпъл в този буфер
+     * @param dst буферът, в който се копира
+     * @param dstPos начален семпъл в {@code dst}
+     * @param count брой семпли
+     */
+    public void copyRange(long srcPos, SampleBuffer dst, long dstPos, long count) {
+        for (long i = 0; i < count; i++) {
+            dst.set(dstPos + i, get(srcPos + i));
+        }
+    }
+
+    /**
+     * Заменя трите семпъла на всеки RGB пиксел с претеглената им сума,
+     * пресметната като {@link PixelKernel#luminance(int, int, int, int, int, int)}.
+     * Сборът на теглата е най-много 100.
+     *
+     * @param redPercent теглото на червения канал в стотни
+     * @param greenPercent теглото на зеления канал в стотни
+     * @param bluePercent теглото на синия канал в стотни
+     */
+    public void luminance(int redPercent, int greenPercent, int bluePercent) {
+        ParallelBands.forEach(length(), (from, to) -> luminance(from, to, redPercent, greenPercent, bluePercent));
+    }
+
+    /**
+     * Пресмята претеглената сума на пикселите в лента от буфера.
+     *
+     * @param from първият семпъл на лентата, кратен на 3
+     * @param to семпълът след края на лентата
+     * @param redPercent теглото на червения канал в стотни
+     * @param greenPercent теглото на зеления канал в стотни
+     * @param bluePercent теглото на синия канал в стотни
+     */
+    protected void luminance(long from, long to, int redPercent, int greenPercent, int bluePercent) {
+        mixChannels(from, to, (r, g, b) -> PixelKernel.luminance(r, g, b, redPercent, greenPercent, bluePercent));
+    }
+
+    /**
+     * Заменя всеки семпъл {@code v} с {@code maxValue - v}.
+     * @param maxValue максималната стойност на изображението
+     */
+    public void invert(int maxValue) {
+        ParallelBands.forEach(length(), (from, to) -> invert(from, to, maxValue));
+    }
+
+    /**
+     * Инвертира семплите в лента от буфера.
+     *
+     * @param from първият семпъл на лентата
+     * @param to семпълът след края на лентата
+     * @param maxValue максималната стойност на изображението
+     */
+    protected void invert(long from, long to, int maxValue) {
+        for (long i = from; i < to; i++) {
+            set(i, maxValue - get(i));
+        }
+    }
+
+    /**
+     * Заменя всеки семпъл, по-голям от {@code threshold}, с {@code maxValue},
+     * а всички останали - с 0.
+     *
+     * @param threshold прагът
+     * @param maxValue максималната стойност на изображението
+     */
+    public void threshold(int threshold, int maxValue) {
+        ParallelBands.forEach(length(), (from, to) -> threshold(from, to, threshold, maxValue));
+    }
+
+    /**
+     * Прилага прага върху семплите в лента от буфера.
+     *
+     * @param from първият семпъл на лентата
+     * @param to семпълът след края на лентата
+     * @param threshold прагът
+     * @param maxValue максималната стойност на изображението
+     */
+    protected void threshold(long from, long to, int threshold, int maxValue) {
+        for (long i = from; i < to; i++) {
+            set(i, get(i) > threshold ? maxValue : 0);
+        }
+    }
+
+    /**
+     * Заменя всеки семпъл {@code v} със {@code table[v]}.
+     *
+     * @param table таблица с поне {@code v + 1} елемента за всеки семпъл {@code v} в буфера
+     */
+    public void applyLookupTable(int[] table) {
+        ParallelBands.forEach(length(), (from, to) -> applyLookupTable(from, to, table));
+    }
+
+    /**
+     * Прилага таблицата върху семплите в лента от буфера.
+     *
+     * @param from първият семпъл на лентата
+     * @param to семпълът след края на лентата
+     * @param table таблицата
+     */
+    protected void applyLookupTable(long from, long to, int[] table) {
+        for (long i = from; i < to; i++) {
+            set(i, table[get(i)]);
+        }
+    }
+
+    /**
+     * Връща най-голямата стойност в буфера.
+     * @return максималният семпъл или 0 за празен буфер
+     */
+    public int maxSample() {
+        int max = 0;
+        for (long i = 0; i < length(); i++) {
+            max = Math.max(max, get(i));
+        }
+        return max;
+    }
+
+    /**
+     * Попълва целия буфер със семпли в суров netpbm формат (P5, P6):
+     * по един байт на семпъл или по два байта в big-endian ред.
+     *
+     * @param channel каналът, от който се чете
+     * @param bytesPerSample 1 или 2
+     * @throws IOException при грешка при четене или преждевременен край на данните
+     */
+    public void readSamples(ReadableByteChannel channel, int bytesPerSample) throws IOException {
+        ByteBuffer chunk = ByteBuffer.allocate(CHUNK_SIZE);
+        long index = 0;
+        while (index < length()) {
+            chunk.clear();
+            chunk.limit((int) Math.min(CHUNK_SIZE, (length() - index) * bytesPerSample));
+            readFully(channel, chunk);
+            chunk.flip();
+            while (chunk.hasRemaining()) {
+                set(index++, bytesPerSample == 1 ? chunk.get() & 0xFF : chunk.getShort() & 0xFFFF);
+            }
+        }
+    }
+
+    /**
+     * Попълва целия буфер с пакетирани битове в суров PBM формат (P4):
+     * по 8 пиксела в байт, започвайки от старшия бит, като всеки ред
+     * е допълнен до цял байт.
+     *
+     * @param channel каналът, от който се чете
+     * @param rowLength брой пиксели в ред
+     * @throws IOException при грешка при четене или преждевременен край на данните
+     */
+    public void readPackedRows(ReadableByteChannel channel, int rowLength) throws IOException {
+        ByteBuffer row = ByteBuffer.allocate((rowLength + 7) >>> 3);
+        for (long start = 0; start < length(); start += rowLength) {
+            row.clear();
+            readFully(channel, row);
+            for (int x = 0; x < rowLength; x++) {
+                set(start + x, (row.get(x >>> 3) >>> (7 - (x & 7))) & 1);
+            }
+        }
+    }
+
+    /**
+     * Записва целия буфер в суров netpbm формат (P5, P6): по един байт на
+     * семпъл или по два байта в big-endian ред.
+     *
+     * @param channel каналът, в който се пише
+     * @param bytesPerSample 1 или 2
+     * @throws IOException при грешка при запис
+     */
+    public void writeSamples(WritableByteChannel channel, int bytesPerSample) throws IOException {
+        ByteBuffer chunk = ByteBuffer.allocate(CHUNK_SIZE);
+        for (long i = 0; i < length(); i++) {
+            if (chunk.remaining() < bytesPerSample) {
+                chunk.flip();
+                writeFully(channel, chunk);
+                chunk.clear();
+            }
+            if (bytesPerSample == 1) {
+                chunk.put((byte) get(i));
+            } else {
+                chunk.putShort((short) get(i));
+            }
+        }
+        chunk.flip();
+        writeFully(channel, chunk);
+    }
+
+    /**
+     * Записва семплите {@code [offset, offset + count)} в суров netpbm формат
+     * направо от паметта на буфера, ако той ги пази във вида, в който са във файла.
+     *
+     * @param channel каналът, в който се пише
+     * @param bytesPerSample 1 или 2
+     * @param offset първият семпъл
+     * @param count брой семпли
+     * @return {@code true}, ако семплите са записани; {@code false}, ако
+     *         извикващият трябва първо да ги копира в друг буфер
+     * @throws IOException при грешка при запис
+     */
+    protected boolean writeSamplesDirect(WritableByteChannel channel, int bytesPerSample,
+                                         long offset, long count) throws IOException {
+        return false;
+    }
+
+    /**
+     * Записва целия буфер като пакетирани битове в суров PBM формат (P4):
+     * по 8 пиксела в байт, започвайки от старшия бит, като всеки ред
+     * се допълва с нули до цял байт.
+     *
+     * @param channel каналът, в който се пише
+     * @param rowLength брой пиксели в ред
+     * @throws IOException при грешка при запис
+     */
+    public void writePackedRows(WritableByteChannel channel, int rowLength) throws IOException {
+        ByteBuffer row = ByteBuffer.allocate((rowLength + 7) >>> 3);
+        for (long start = 0; start < length(); start += rowLength) {
+            row.clear();
+            for (int x = 0; x < rowLength; x += 8) {
+                int bits = 0;
+                for (int j = 0; j < 8; j++) {
+                    bits = (bits << 1) | (x + j < rowLength ? get(start + x + j) : 0);
+                }
+                row.put((byte) bits);
+            }
+            row.flip();
+            writeFully(channel, row);
+        }
+    }
+
+    /**
+     * Чете от канала, докато {@code dst} не се напълни.
+     *
+     * @param channel каналът, от който се чете
+     * @param dst буферът за попълване
+     * @throws IOException при грешка при четене или ако данните свършат по-рано
+     */
+    protected static void readFully(ReadableByteChannel channel, ByteBuffer dst) throws IOException {
+        while (dst.hasRemaining()) {
+            if (channel.read(dst) < 0) {
+                throw new EOFException("Unexpected end of raster data");
+            }
+        }
+    }
+
+    /**
+     * Записва в канала всички оставащи байтове от {@code src}.
+     *
+     * @param channel каналът, в който се пише
+     * @param src байтовете за запис
+     * @throws IOException при грешка при запис
+     */
+    protected static void writeFully(WritableByteChannel channel, ByteBuffer src) throws IOException {
+        while (src.hasRemaining()) {
+            channel.write(src);
+        }
+    }
+}
@@ -0,0 +1,208 @@
+package image.storage;
+
+import image.storage.impl.SegmentSampleBuffer;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.ref.Cleaner;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Място, в което се създават буферите с пиксели на изображенията от една сесия.
+ * <p>
+ * {@link #HEAP} създава обикновени буфери в heap-а. Хранилище, отворено с
+ * {@link #open()} при {@code -Draster.storage=offheap}, създава буферите
+ * извън heap-а в една споделена {@link Arena} (вж. {@link SegmentSampleBuffer}),
+ * така че garbage collector-ът не управлява многогигабайтови масиви.
+ * При {@code -Draster.storage=mmap} суровите растери освен това не се четат,
+ * а се проектират от файла в паметта (вж. {@link #map}).
+ * Паметта на всички буфери се освобождава наведнъж при {@link #close()},
+ * когато сесията се затвори. Дотогава остават и буферите, които изображенията
+ * вече не използват, затова хранилището е за сесии с големи изображения,
+ * а не за много последователни промени на малки.
+ * </p>
+ * <p>
+ * Хранилището затваря и файловете, от които изображенията четат растера си
+ * при поискване (вж. {@link #openRaster}).
+ * </p>
+ */
+public final class SampleStorage implements AutoCloseable {
+    /**
+     * Хранилището в heap-а, което не се нуждае от затваряне.
+     */
+    public static final SampleStorage HEAP = new SampleStorage(null, false, false);
+
+    private static final String MODE = System.getProperty("raster.storage", "heap");
+
+    private static final Cleaner CLEANER = Cleaner.create();
+
+    private final Arena arena;
+    private final boolean mapping;
+    private final boolean closeable;
+    private final List<FileChannel> openFiles = new CopyOnWriteArrayList<>();
+
+    private SampleStorage(Arena arena, boolean mapping, boolean closeable) {
+        this.arena = arena;
+        this.mapping = mapping;
+        this.closeable = closeable;
+    }
+
+    /**
+     * Отваря хранилище за нова сесия според {@code raster.storage}:
+     * извън heap-а при {@code offheap} и {@code mmap}, иначе в heap-а.
+     *
+     * @return хранилището, което се затваря заедно със сесията
+     */
+    public static SampleStorage open() {
+        return switch (MODE) {
+            case "offheap" -> new SampleStorage(Arena.ofShared(), false, true);
+            case "mmap" -> new SampleStorage(Arena.ofShared(), true, true);
+            default -> new SampleStorage(null, false, true);
+        };
+    }
+
+    /**
+     * Проверява дали растер с дадените размери се побира в паметта на
+     * хранилището, без да се разделя на плочки, които се изхвърлят на диска.
+     *
+     * @param width ширината на изображението
+     * @param height височината на изображението
+     * @param samplesPerPixel брой семпли в пиксел
+     * @param maxValue най-голямата стойност, която ще се пази в буфера
+     * @return true, ако буферът ще е извън heap-а или няма да е на плочки
+     */
+    public boolean fitsInMemory(int width, int height, int samplesPerPixel, int maxValue) {
+        return arena != null || !SampleBuffer.needsTiles((long) width * height * samplesPerPixel, maxValue);
+    }
+
+    /**
+     * Създава нулиран буфер за растер с дадените размери.
+     *
+     * @param width ширината на изображението
+     * @param height височината на изображението
+     * @param samplesPerPixel брой семпли в пиксел
+     * @param maxValue най-голямата стойност, която ще се пази в буфера
+     * @return новият буфер
+     * @see SampleBuffer#allocate(int, int, int, int)
+     */
+    public SampleBuffer allocate(int width, int height, int samplesPerPixel, int maxValue) {
+        if (arena == null) {
+            return SampleBuffer.allocate(width, height, samplesPerPixel, maxValue);
+        }
+        return new SegmentSampleBuffer(arena, (long) width * height * samplesPerPixel, maxValue);
+    }
+
+    /**
+     * Проектира суровия растер на файл в паметта вместо да го чете. Промените
+     * в буфера не стигат до файла, а при запис непроменените му части се
+     * прехвърлят направо от файла. Проектира се само растер, чиято подредба
+     * съвпада с тази в паметта: 8- и 16-битови семпли, а при битовете (P4) -
+     * редове с ширина, кратна на 8 (без допълване). Растер на P5 или P6 с
+     * максимална стойност 1 е с байт на семпъл и се проектира като 8-битов.
+     * Проектирането с копиране
+     * при запис изисква файлът да е отворен и за запис, макар че в него не се
+     * пише, затова файл само за четене се чете обикновено.
+     *
+     * @param file файлът на изображението
+     * @param offset отместването на растера във файла
+     * @param width ширината на изображението
+     * @param height височината на изображението
+     * @param samplesPerPixel брой семпли в пиксел
+     * @param maxValue най-голямата стойност на семпъл във файла
+     * @param bitmap дали растерът е от пакетирани битове (P4)
+     * @return буферът върху файла или {@code null}, ако хранилището не проектира
+     *         файлове или растерът не може да се проектира - тогава се чете обикновено
+     * @throws IOException ако файлът не може да бъде отворен или проектиран
+     */
+    public SampleBuffer map(File file, long offset, int width, int height, int samplesPerPixel, int maxValue,
+                            boolean bitmap) throws IOException {
+        if (!mapping || (bitmap && width % 8 != 0) || !file.canWrite()) {
+            return null;
+        }
+        long length = (long) width * height * samplesPerPixel;
+        int layout = bitmap ? 1 : Math.max(maxValue, 0xFF);
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            if (channel.size() - offset < SampleBuffer.byteSize(length, layout)) {
+                channel.close();
+                return null;
+            }
+            SampleBuffer samples = SegmentSampleBuffer.map(arena, channel, offset, length, layout);
+            openFiles.add(channel);
+            return samples;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Отваря файл само за четене на растера му при поискване. Файлът се
+     * затваря, когато {@code owner} вече не се използва или когато
+     * хранилището се затвори - което настъпи първо.
+     *
+     * @param file файлът на изображението
+     * @param owner обектът, който чете от файла
+     * @return отвореният файл
+     * @throws IOException ако файлът не може да бъде отворен
+     */
+    public FileChannel openRaster(File file, Object owner) throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        if (closeable) {
+            openFiles.add(channel);
+        }
+        CLEANER.register(owner, new CloseFile(channel, openFiles));
+        return channel;
+    }
+
+    /**
+     * Освобождава паметта на всички буфери, създадени в хранилището, и
+     * затваря отворените от него файлове. След това буферите не могат да се
+     * използват. {@link #HEAP} не се затваря, защото е общо за всички.
+     */
+    @Override
+    public void close() {
+        if (!closeable) {
+            return;
+        }
+        if (arena != null) {
+            arena.close();
+        }
+        for (FileChannel channel : openFiles) {
+            closeQuietly(channel);
+        }
+        openFiles.clear();
+    }
+
+    private static void closeQuietly(FileChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+            // във файла не се пише, затова при затваряне няма какво да се загуби
+        }
+    }
+
+    /**
+     * Затваря файла на собственик, който вече не се използва. Не държи
+     * референция към собственика, иначе той никога нямаше да бъде освободен.
+     */
+    private static final class CloseFile implements Runnable {
+        private final FileChannel channel;
+        private final List<FileChannel> openFiles;
+
+        CloseFile(FileChannel channel, List<FileChannel> openFiles) {
+            this.channel = channel;
+            this.openFiles = openFiles;
+        }
+
+        @Override
+        public void run() {
+            openFiles.remove(channel);
+            closeQuietly(channel);
+        }
+    }
+}
@@ -0,0 +1,599 @@
+package image.storage;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.ref.Cleaner;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * Буфер за изображения, които не се побират в heap-а. Растерът се разделя
+ * на квадратни плочки от {@value #TILE_SIZE}x{@value #TILE_SIZE} пиксела, като
+ * в паметта се държат само последно използваните (LRU кеш с ограничен размер).
+ * Изместена плочка, която е променяна, се записва във временен файл и при
+ * следващото обръщение към нея се прочита оттам.
+ * <p>
+ * Индексите на семплите са същите като при обикновен буфер (ред по ред),
+ * така че изображенията работят с него без промени. Те са {@code long}, затова
+ * растерът може да има повече семпли, отколкото побира масив. Последователното четене
+ * и запис (зареждане, запис във файл, колаж) минават на отсечки от редове
+ * в рамките на една плочка. Завъртанията и огледалните обръщания създават
+ * нов буфер на плочки, като всяка плочка на резултата се попълва наведнъж,
+ * така че за нея са нужни само няколко плочки от източника.
+ * </p>
+ * <p>
+ * Буферът се избира от {@link SampleBuffer#allocate(int, int, int, int)}, когато
+ * растерът е по-голям от {@code raster.tiledThreshold} байта (по подразбиране
+ * една четвърт от heap-а). Размерът на кеша на всеки буфер се задава с
+ * {@code raster.tileCacheSize} (по подразбиране една осма от heap-а).
+ * </p>
+ */
+final class TiledSampleBuffer extends SampleBuffer {
+    /**
+     * Страна на плочка в пиксели. Ред от плочка в битов буфер е цял брой думи.
+     */
+    static final int TILE_SIZE = 256;
+
+    /**
+     * Най-малкият растер в байтове, за който се използват плочки.
+     */
+    static final long THRESHOLD = Long.getLong("raster.tiledThreshold", Runtime.getRuntime().maxMemory() / 4);
+
+    private static final long CACHE_SIZE = Long.getLong("raster.tileCacheSize", Runtime.getRuntime().maxMemory() / 8);
+
+    /**
+     * Най-малко плочки в кеша: достатъчно за пакет плочки при паралелна
+     * обработка и за съседните плочки при завъртане.
+     */
+    private static final int MIN_CACHED_TILES = 64;
+
+    private static final Cleaner CLEANER = Cleaner.create();
+
+    private final int width;
+    private final int height;
+    private final int samplesPerPixel;
+    private final int maxSupportedValue;
+    private final int columns;
+    private final Tile[] tiles;
+    private final long tileBytes;
+    private final int capacity;
+    private final LinkedHashMap<Integer, Tile> resident = new LinkedHashMap<>(16, 0.75f, true);
+    private final SpillFile spill;
+    private Tile last;
+
+    /**
+     * Създава нулиран буфер на плочки.
+     * @param width ширината на изображението
+     * @param height височината на изображението
+     * @param samplesPerPixel брой семпли в пиксел
+     * @param maxValue най-голямата стойност, която ще се пази в буфера
+     */
+    TiledSampleBuffer(int width, int height, int samplesPerPixel, int maxValue) {
+        this(width, height, samplesPerPixel, maxValue <= 1 ? 1 : maxValue <= 0xFF ? 0xFF : 0xFFFF, new SpillFile());
+    }
+
+    private TiledSampleBuffer(int width, int height, int samplesPerPixel, int maxSupportedValue, SpillFile spill) {
+        this.width = width;
+        this.height = height;
+        this.samplesPerPixel = samplesPerPixel;
+        this.maxSupportedValue = maxSupportedValue;
+        this.columns = (width + TILE_SIZE - 1) / TILE_SIZE;
+        int rows = (height + TILE_SIZE - 1) / TILE_SIZE;
+        this.tiles = new Tile[Math.multiplyExact(columns, rows)];
+        for (int index = 0; index < tiles.length; index++) {
+            int x = index % columns * TILE_SIZE;
+            int y = index / columns * TILE_SIZE;
+            tiles[index] = new Tile(index, Math.min(TILE_SIZE, width - x), Math.min(TILE_SIZE, height - y));
+        }
+        this.tileBytes = byteSize(TILE_SIZE * TILE_SIZE * samplesPerPixel, maxSupportedValue);
+        this.capacity = (int) Math.max(MIN_CACHED_TILES, Math.min(tiles.length, CACHE_SIZE / tileBytes));
+        this.spill = spill;
+        CLEANER.register(this, spill);
+    }
+
+    @Override
+    public long length() {
+        return (long) width * height * samplesPerPixel;
+    }
+
+    @Override
+    public int maxSupportedValue() {
+        return maxSupportedValue;
+    }
+
+    @Override
+    public int get(long index) {
+        long pixel = index / samplesPerPixel;
+        int y = (int) (pixel / width);
+        int x = (int) (pixel - (long) y * width);
+        Tile tile = tileAt(x, y);
+        return tile.samples.get(tile.offset(x, y, samplesPerPixel) + index - pixel * samplesPerPixel);
+    }
+
+    @Override
+    public void set(long index, int value) {
+        long pixel = index / samplesPerPixel;
+        int y = (int) (pixel / width);
+        int x = (int) (pixel - (long) y * width);
+        Tile tile = tileAt(x, y);
+        tile.samples.set(tile.offset(x, y, samplesPerPixel) + index - pixel * samplesPerPixel, value);
+        tile.dirty = true;
+    }
+
+    /**
+     * Създава независимо копие. Променените плочки първо се записват във
+     * временния файл, след което той се копира от файловата система.
+     */
+    @Override
+    public SampleBuffer copy() {
+        TiledSampleBuffer copy = new TiledSampleBuffer(width, height, samplesPerPixel, maxSupportedValue,
+                new SpillFile());
+        try {
+            for (Tile tile : resident.values()) {
+                writeBack(tile);
+            }
+            spill.copyTo(copy.spill);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        for (int index = 0; index < tiles.length; index++) {
+            copy.tiles[index].spilled = tiles[index].spilled;
+        }
+        return copy;
+    }
+
+    /**
+     * Копието на буфер на плочки и без това не заема heap, затова не се обвива.
+     */
+    @Override
+    public SampleBuffer copyOnWrite() {
+        return this;
+    }
+
+    @Override
+    public SampleBuffer widenTo(int maxValue) {
+        if (maxValue <= maxSupportedValue) {
+            return this;
+        }
+        TiledSampleBuffer wider = new TiledSampleBuffer(width, height, samplesPerPixel, maxValue);
+        copyRange(0, wider, 0, length());
+        return wider;
+    }
+
+    @Override
+    public void getRange(long offset, int[] dst, int dstOffset, int count) {
+        forEachSegment(offset, count, false,
+                (samples, position, done, n) -> samples.getRange(position, dst, dstOffset + (int) done, n));
+    }
+
+    @Override
+    public void setRange(long offset, int[] src, int srcOffset, int count) {
+        forEachSegment(offset, count, true,
+                (samples, position, done, n) -> samples.setRange(position, src, srcOffset + (int) done, n));
+    }
+
+    @Override
+    public void copyRange(long srcPos, SampleBuffer dst, long dstPos, long count) {
+        if (dst instanceof TiledSampleBuffer other) {
+            forEachSegment(srcPos, count, false,
+                    (samples, position, done, n) -> other.putRange(dstPos + done, samples, position, n));
+        } else {
+            forEachSegment(srcPos, count, false,
+                    (samples, position, done, n) -> samples.copyRange(position, dst, dstPos + done, n));
+        }
+    }
+
+    /**
+     * Копира правоъгълника на отсечки, които четат от една плочка. При стъпки
+     * по ред или по колона отсечката стига до края на плочката, а при други
+     * стъпки е един пиксел.
+     */
+    @Override
+    protected void copyTile(SampleBuffer dst, int dstWidth, int samplesPerPixel,
+                            long srcBase, long srcStepX, long srcStepY, int x0, int x1, int y0, int y1) {
+        for (int y = y0; y < y1; y++) {
+            for (int x = x0; x < x1; ) {
+                long pixel = srcBase + x * srcStepX + y * srcStepY;
+                int sy = (int) (pixel / width);
+                int sx = (int) (pixel - (long) sy * width);
+                Tile tile = tileAt(sx, sy);
+                int tileX = sx % TILE_SIZE;
+                int tileY = sy % TILE_SIZE;
+                int n;
+                int step;
+                if (srcStepX == 1 || srcStepX == -1) {
+                    n = srcStepX > 0 ? tile.width - tileX : tileX + 1;
+                    step = (int) srcStepX;
+                } else if (srcStepX == width || srcStepX == -width) {
+                    n = srcStepX > 0 ? tile.height - tileY : tileY + 1;
+                    step = srcStepX > 0 ? tile.width : -tile.width;
+                } else {
+                    n = 1;
+                    step = 0;
+                }
+                n = Math.min(n, x1 - x);
+                int base = tileY * tile.width + tileX - x * step;
+                tile.samples.copyTile(dst, dstWidth, samplesPerPixel, base, step, 0, x, x + n, y, y + 1);
+                x += n;
+            }
+        }
+    }
+
+    /**
+     * Създава нов буфер на плочки с пренаредените пиксели. Всяка плочка на
+     * резултата се попълва наведнъж, като чете от малко на брой плочки тук.
+     */
+    @Override
+    SampleBuffer remappedCopy(int dstWidth, int dstHeight, int samplesPerPixel,
+                              long srcBase, long srcStepX, long srcStepY) {
+        TiledSampleBuffer dst = new TiledSampleBuffer(dstWidth, dstHeight, samplesPerPixel, maxSupportedValue);
+        for (int index = 0; index < dst.tiles.length; index++) {
+            int x0 = index % dst.columns * TILE_SIZE;
+            int y0 = index / dst.columns * TILE_SIZE;
+            Tile tile = dst.tile(index);
+            copyTile(tile.samples, tile.width, samplesPerPixel, srcBase + x0 * srcStepX + y0 * srcStepY,
+                    srcStepX, srcStepY, 0, tile.width, 0, tile.height);
+            tile.dirty = true;
+        }
+        return dst;
+    }
+
+    /**
+     * Завърта в нов буфер на плочки (вж. {@link #remappedCopy}).
+     */
+    @Override
+    public SampleBuffer rotate(int width, int height, int samplesPerPixel, int quarterTurns) {
+        return switch (quarterTurns) {
+            case 1 -> remappedCopy(height, width, samplesPerPixel, (height - 1L) * width, -width, 1);
+            case 2 -> remappedCopy(width, height, samplesPerPixel, (long) width * height - 1, -1, -width);
+            case 3 -> remappedCopy(height, width, samplesPerPixel, width - 1, width, -1);
+            default -> this;
+        };
+    }
+
+    /**
+     * Обръща в нов буфер на плочки (вж. {@link #remappedCopy}).
+     */
+    @Override
+    public SampleBuffer flipHorizontal(int width, int height, int samplesPerPixel) {
+        return remappedCopy(width, height, samplesPerPixel, width - 1, -1, width);
+    }
+
+    @Override
+    public void invert(int maxValue) {
+        forEachTile((samples, from, to) -> samples.invert(from, to, maxValue));
+    }
+
+    @Override
+    public void threshold(int threshold, int maxValue) {
+        forEachTile((samples, from, to) -> samples.threshold(from, to, threshold, maxValue));
+    }
+
+    @Override
+    public void applyLookupTable(int[] table) {
+        forEachTile((samples, from, to) -> samples.applyLookupTable(from, to, table));
+    }
+
+    @Override
+    public void mixChannels(PixelKernel kernel) {
+        forEachTile((samples, from, to) -> samples.mixChannels(from, to, kernel));
+    }
+
+    @Override
+    public void luminance(int redPercent, int greenPercent, int bluePercent) {
+        forEachTile((samples, from, to) -> samples.luminance(from, to, redPercent, greenPercent, bluePercent));
+    }
+
+    @Override
+    public int maxSample() {
+        int max = 0;
+        for (int index = 0; index < tiles.length; index++) {
+            max = Math.max(max, tile(index).samples.maxSample());
+        }
+        return max;
+    }
+
+    /**
+     * Чете растера ред по ред и разпределя всеки ред по плочките.
+     */
+    @Override
+    public void readSamples(ReadableByteChannel channel, int bytesPerSample) throws IOException {
+        SampleBuffer row = allocate(width * samplesPerPixel, maxSupportedValue);
+        for (long start = 0; start < length(); start += row.length()) {
+            row.readSamples(channel, bytesPerSample);
+            putRange(start, row, 0, row.length());
+        }
+    }
+
+    @Override
+    public void readPackedRows(ReadableByteChannel channel, int rowLength) throws IOException {
+        SampleBuffer row = allocate(rowLength, maxSupportedValue);
+        for (long start = 0; start < length(); start += rowLength) {
+            row.readPackedRows(channel, rowLength);
+            putRange(start, row, 0, rowLength);
+        }
+    }
+
+    /**
+     * Събира всеки ред от плочките и го записва.
+     */
+    @Override
+    public void writeSamples(WritableByteChannel channel, int bytesPerSample) throws IOException {
+        SampleBuffer row = allocate(width * samplesPerPixel, maxSupportedValue);
+        for (long start = 0; start < length(); start += row.length()) {
+            copyRange(start, row, 0, row.length());
+            row.writeSamples(channel, bytesPerSample);
+        }
+    }
+
+    @Override
+    public void writePackedRows(WritableByteChannel channel, int rowLength) throws IOException {
+        SampleBuffer row = allocate(rowLength, maxSupportedValue);
+        for (long start = 0; start < length(); start += rowLength) {
+            copyRange(start, row, 0, rowLength);
+            row.writePackedRows(channel, rowLength);
+        }
+    }
+
+    /**
+     * Копира семпли от обикновен буфер в този, на отсечки в рамките на една плочка.
+     */
+    private void putRange(long offset, SampleBuffer src, long srcPos, long count) {
+        forEachSegment(offset, count, true,
+                (samples, position, done, n) -> src.copyRange(srcPos + done, samples, position, n));
+    }
+
+    /**
+     * Отсечка {@code [position, position + count)} от семплите на плочка,
+     * която отговаря на семплите от {@code done} нататък в обхождането.
+     */
+    @FunctionalInterface
+    private interface Segment {
+        void apply(SampleBuffer samples, int position, long done, int count);
+    }
+
+    /**
+     * Обхожда семплите {@code [offset, offset + count)} на отсечки, всяка от
+     * които е част от ред в една плочка.
+     */
+    private void forEachSegment(long offset, long count, boolean write, Segment segment) {
+        int rowLength = width * samplesPerPixel;
+        int tileRowLength = TILE_SIZE * samplesPerPixel;
+        for (long done = 0; done < count; ) {
+            int y = (int) ((offset + done) / rowLength);
+            int column = (int) (offset + done - (long) y * rowLength);
+            int tileColumn = column / tileRowLength;
+            Tile tile = tileAt(tileColumn * TILE_SIZE, y);
+            int start = column - tileColumn * tileRowLength;
+            int n = (int) Math.min(count - done, tile.width * samplesPerPixel - start);
+            segment.apply(tile.samples, (y % TILE_SIZE) * tile.width * samplesPerPixel + start, done, n);
+            tile.dirty |= write;
+            done += n;
+        }
+    }
+
+    /**
+     * Операция върху семплите {@code [from, to)} на плочка.
+     */
+    @FunctionalInterface
+    private interface TileOperation {
+        void apply(SampleBuffer samples, long from, long to);
+    }
+
+    /**
+     * Прилага операцията върху всички плочки. Плочките се зареждат на пакети
+     * в текущата нишка, а операцията върху пакета се изпълнява паралелно.
+     */
+    private void forEachTile(TileOperation operation) {
+        Tile[] batch = new Tile[Math.max(1, capacity / 2)];
+        for (int start = 0; start < tiles.length; start += batch.length) {
+            int count = Math.min(batch.length, tiles.length - start);
+            for (int i = 0; i < count; i++) {
+                batch[i] = tile(start + i);
+                batch[i].dirty = true;
+            }
+            ParallelBands.forEach(count, 1, TILE_SIZE * TILE_SIZE * samplesPerPixel, (from, to) -> {
+                for (int i = (int) from; i < to; i++) {
+                    operation.apply(batch[i].samples, 0, batch[i].samples.length());
+                }
+            });
+        }
+    }
+
+    private Tile tileAt(int x, int y) {
+        return tile(y / TILE_SIZE * columns + x / TILE_SIZE);
+    }
+
+    /**
+     * Връща плочката, заредена в паметта. Ако кешът е пълен, първо измества
+     * най-отдавна използваната плочка.
+     */
+    private Tile tile(int index) {
+        Tile tile = last;
+        if (tile != null && tile.index == index) {
+            return tile;
+        }
+        tile = resident.get(index);
+        if (tile == null) {
+            tile = tiles[index];
+            if (resident.size() >= capacity) {
+                evictEldest();
+            }
+            try {
+                load(tile);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            resident.put(index, tile);
+        }
+        last = tile;
+        return tile;
+    }
+
+    private void evictEldest() {
+        Iterator<Tile> eldest = resident.values().iterator();
+        Tile tile = eldest.next();
+        try {
+            writeBack(tile);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        tile.samples = null;
+        eldest.remove();
+        if (last == tile) {
+            last = null;
+        }
+    }
+
+    private void load(Tile tile) throws IOException {
+        tile.samples = allocate(tile.width * tile.height * samplesPerPixel, maxSupportedValue);
+        if (tile.spilled) {
+            spill.read(tile.samples, tile.index * tileBytes);
+        }
+    }
+
+    /**
+     * Записва плочката във временния файл, ако е променяна след последния запис.
+     */
+    private void writeBack(Tile tile) throws IOException {
+        if (tile.dirty) {
+            spill.write(tile.samples, tile.index * tileBytes);
+            tile.dirty = false;
+            tile.spilled = true;
+        }
+    }
+
+    /**
+     * Плочка: правоъгълник от до {@value #TILE_SIZE}x{@value #TILE_SIZE} пиксела,
+     * чиито семпли са подредени ред по ред. Семплите са {@code null}, когато
+     * плочката не е в кеша.
+     */
+    private static final class Tile {
+        final int index;
+        final int width;
+        final int height;
+        SampleBuffer samples;
+        boolean dirty;
+        boolean spilled;
+
+        Tile(int index, int width, int height) {
+            this.index = index;
+            this.width = width;
+            this.height = height;
+        }
+
+        /**
+         * Връща позицията на първия семпъл на пиксел (x, y) от изображението в плочката.
+         */
+        int offset(int x, int y, int samplesPerPixel) {
+            return ((y % TILE_SIZE) * width + x % TILE_SIZE) * samplesPerPixel;
+        }
+    }
+
+    /**
+     * Временният файл с изместените плочки. Всяка плочка има собствено място
+     * с размера на пълна плочка. Файлът се създава при първия запис и се
+     * изтрива, когато буферът стане недостижим.
+     */
+    private static final class SpillFile implements Runnable {
+        private FileChannel channel;
+
+        void write(SampleBuffer samples, long position) throws IOException {
+            WritableByteChannel target = new PositionedChannel(channel(), position);
+            if (samples.maxSupportedValue() == 1) {
+                samples.writePackedRows(target, (int) samples.length());
+            } else {
+                samples.writeSamples(target, samples.maxSupportedValue() > 0xFF ? 2 : 1);
+            }
+        }
+
+        void read(SampleBuffer samples, long position) throws IOException {
+            ReadableByteChannel source = new PositionedChannel(channel(), position);
+            if (samples.maxSupportedValue() == 1) {
+                samples.readPackedRows(source, (int) samples.length());
+            } else {
+                samples.readSamples(source, samples.maxSupportedValue() > 0xFF ? 2 : 1);
+            }
+        }
+
+        void copyTo(SpillFile other) throws IOException {
+            if (channel == null) {
+                return;
+            }
+            FileChannel target = other.channel();
+            long size = channel.size();
+            for (long position = 0; position < size; ) {
+                position += channel.transferTo(position, size - position, target.position(position));
+            }
+        }
+
+        private FileChannel channel() throws IOException {
+            if (channel == null) {
+                Path path = Files.createTempFile("raster", ".tiles");
+                channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                        StandardOpenOption.DELETE_ON_CLOSE);
+            }
+            return channel;
+        }
+
+        /**
+         * Затваря и изтрива файла.
+         */
+        @Override
+        public void run() {
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException ignored) {
+                    // Файлът се изтрива и при спиране на виртуалната машина.
+                }
+            }
+        }
+    }
+
+    /**
+     * Канал, който чете и пише във файл от дадена позиция нататък, без да
+     * променя позицията на самия файл.
+     */
+    private static final class PositionedChannel implements ReadableByteChannel, WritableByteChannel {
+        private final FileChannel file;
+        private long position;
+
+        PositionedChannel(FileChannel file, long position) {
+            this.file = file;
+            this.position = position;
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            int count = file.read(dst, position);
+            if (count > 0) {
+                position += count;
+            }
+            return count;
+        }
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            int count = file.write(src, position);
+            position += count;
+            return count;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return file.isOpen();
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
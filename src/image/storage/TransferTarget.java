@@ -0,0 +1,23 @@
+package image.storage;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Канал, в който байтове от файл могат да се прехвърлят с
+ * {@link FileChannel#transferTo}, без да минават през паметта на процеса.
+ * Буфер, проектиран от файл в паметта, записва непроменените си части така.
+ */
+public interface TransferTarget extends WritableByteChannel {
+    /**
+     * Записва {@code count} байта от {@code source}, започвайки от {@code position},
+     * след всичко записано дотук.
+     *
+     * @param source файлът, от който се прехвърля
+     * @param position позицията на първия байт във файла
+     * @param count брой байтове
+     * @throws IOException при грешка при четене или запис
+     */
+    void transferFrom(FileChannel source, long position, long count) throws IOException;
+}
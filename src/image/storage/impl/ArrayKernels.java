@@ -0,0 +1,44 @@
+package image.storage.impl;
+
+import image.storage.PixelKernel;
+
+/**
+ * Цикли върху масивите на буферите, които имат векторна реализация.
+ * <p>
+ * Реализацията се избира веднъж при зареждане на класа: ако модулът
+ * {@code jdk.incubator.vector} е зареден (JVM е стартирана с
+ * {@code --add-modules jdk.incubator.vector}), се използва
+ * {@link VectorArrayKernels}, а иначе - {@link ScalarArrayKernels}.
+ * Двете реализации дават едни и същи резултати.
+ * </p>
+ */
+interface ArrayKernels {
+    ArrayKernels INSTANCE = select();
+
+    void invert(byte[] samples, int from, int to, int maxValue);
+
+    void threshold(byte[] samples, int from, int to, int threshold, int maxValue);
+
+    void invert(short[] samples, int from, int to, int maxValue);
+
+    void threshold(short[] samples, int from, int to, int threshold, int maxValue);
+
+    /**
+     * Заменя трите канала на всеки RGB пиксел с
+     * {@link PixelKernel#luminance(int, int, int, int, int, int)}.
+     * Сборът на теглата е най-много 100, така че сумата е най-много 25500.
+     */
+    void luminance(byte[] samples, int from, int to, int redPercent, int greenPercent, int bluePercent);
+
+    private static ArrayKernels select() {
+        if (ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()) {
+            try {
+                return (ArrayKernels) Class.forName("image.storage.impl.VectorArrayKernels")
+                        .getDeclaredConstructor().newInstance();
+            } catch (ReflectiveOperationException | LinkageError e) {
+                // Векторният API не е използваем в тази JVM - остава скаларната реализация.
+            }
+        }
+        return new ScalarArrayKernels();
+    }
+}
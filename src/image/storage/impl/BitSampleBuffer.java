@@ -0,0 +1,237 @@
+package image.storage.impl;
+
+import image.storage.SampleBuffer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Буфер с 1-битови семпли, пакетирани по 64 в {@code long}.
+ * <p>
+ * Бит с индекс {@code i} се намира в дума {@code i / 64}, като битовете
+ * в думата са подредени от старшия към младшия (бит 0 е най-старшият).
+ * Неизползваните битове в последната дума винаги са нула, което позволява
+ * операциите да работят директно върху цели думи.
+ * </p>
+ */
+public class BitSampleBuffer extends SampleBuffer {
+    private final long[] words;
+    private final int length;
+
+    /**
+     * Създава нулиран буфер с дадения брой битове.
+     * @param length брой битове
+     */
+    public BitSampleBuffer(int length) {
+        this.length = length;
+        this.words = new long[(length + 63) >>> 6];
+    }
+
+    private BitSampleBuffer(long[] words, int length) {
+        this.words = words;
+        this.length = length;
+    }
+
+    @Override
+    public long length() {
+        return length;
+    }
+
+    @Override
+    public int maxSupportedValue() {
+        return 1;
+    }
+
+    @Override
+    public int get(long index) {
+        return (int) (words[(int) (index >>> 6)] >>> (63 - (index & 63))) & 1;
+    }
+
+    @Override
+    public void set(long index, int value) {
+        long mask = Long.MIN_VALUE >>> index;
+        if (value != 0) {
+            words[(int) (index >>> 6)] |= mask;
+        } else {
+            words[(int) (index >>> 6)] &= ~mask;
+        }
+    }
+
+    @Override
+    public SampleBuffer copy() {
+        return new BitSampleBuffer(words.clone(), length);
+    }
+
+    /**
+     * Копира поредица от битове в друг буфер. Когато приемникът също е битов,
+     * се прехвърлят до 64 бита наведнъж, а при подравнени към дума позиции -
+     * директно цели думи.
+     */
+    @Override
+    public void copyRange(long srcPos, SampleBuffer dst, long dstPos, long count) {
+        if (!(dst instanceof BitSampleBuffer other)) {
+            super.copyRange(srcPos, dst, dstPos, count);
+            return;
+        }
+
+        int from = (int) srcPos;
+        int to = (int) dstPos;
+        int done = 0;
+
+        if ((from & 63) == 0 && (to & 63) == 0) {
+            int fullWords = (int) (count >>> 6);
+            System.arraycopy(words, from >>> 6, other.words, to >>> 6, fullWords);
+            done = fullWords << 6;
+        }
+
+        while (done < count) {
+            int target = to + done;
+            int n = (int) Math.min(64 - (target & 63), count - done);
+            other.writeBits(target, n, readBits(from + done));
+            done += n;
+        }
+    }
+
+    /**
+     * Инвертира битовете в лентата - по една XOR операция на дума.
+     */
+    @Override
+    protected void invert(long from, long to, int maxValue) {
+        if (maxValue != 1) {
+            super.invert(from, to, maxValue);
+            return;
+        }
+        int end = (int) ((to + 63) >>> 6);
+        for (int i = (int) (from >>> 6); i < end; i++) {
+            words[i] = ~words[i];
+        }
+        if (to == length) {
+            clearPadding();
+        }
+    }
+
+    /**
+     * Таблица за битове има само четири възможности (запазване, инвертиране,
+     * нулиране и запълване), затова се прилага по цели думи.
+     */
+    @Override
+    protected void applyLookupTable(long from, long to, int[] table) {
+        long zeroTo = table[0] != 0 ? -1L : 0L;
+        long oneTo = table[1] != 0 ? -1L : 0L;
+        int end = (int) ((to + 63) >>> 6);
+        for (int i = (int) (from >>> 6); i < end; i++) {
+            words[i] = (words[i] & oneTo) | (~words[i] & zeroTo);
+        }
+        if (to == length) {
+            clearPadding();
+        }
+    }
+
+    /**
+     * Обръща реда на битовете с цели думи: думите се обръщат в обратен ред
+     * и всяка с {@link Long#reverse}, след което целият масив се измества
+     * наляво, за да изчезнат нулите от допълнението на последната дума.
+     */
+    @Override
+    protected void reversePixels(int samplesPerPixel) {
+        if (samplesPerPixel != 1) {
+            super.reversePixels(samplesPerPixel);
+            return;
+        }
+        for (int i = 0, j = words.length - 1; i <= j; i++, j--) {
+            long tmp = Long.reverse(words[i]);
+            words[i] = Long.reverse(words[j]);
+            words[j] = tmp;
+        }
+        int padding = (64 - (length & 63)) & 63;
+        if (padding != 0) {
+            for (int i = 0; i < words.length; i++) {
+                long next = i + 1 < words.length ? words[i + 1] : 0L;
+                words[i] = (words[i] << padding) | (next >>> (64 - padding));
+            }
+        }
+    }
+
+    /**
+     * Чете P4 редовете и ги прехвърля в буфера по 64 бита наведнъж.
+     */
+    @Override
+    public void readPackedRows(ReadableByteChannel channel, int rowLength) throws IOException {
+        int rowBytes = (rowLength + 7) >>> 3;
+        ByteBuffer row = ByteBuffer.allocate((rowBytes + 7) & ~7);
+        for (int start = 0; start < length; start += rowLength) {
+            row.clear();
+            row.limit(rowBytes);
+            readFully(channel, row);
+            row.clear();
+            for (int x = 0; x < rowLength; x += 64) {
+                putBits(start + x, Math.min(64, rowLength - x), row.getLong(x >>> 3));
+            }
+        }
+    }
+
+    /**
+     * Записва редовете в P4 вид, като прехвърля по 64 бита наведнъж.
+     * Битовете след края на реда се нулират.
+     */
+    @Override
+    public void writePackedRows(WritableByteChannel channel, int rowLength) throws IOException {
+        int rowBytes = (rowLength + 7) >>> 3;
+        ByteBuffer row = ByteBuffer.allocate((rowBytes + 7) & ~7);
+        for (int start = 0; start < length; start += rowLength) {
+            row.clear();
+            for (int x = 0; x < rowLength; x += 64) {
+                int n = Math.min(64, rowLength - x);
+                row.putLong(x >>> 3, readBits(start + x) & (-1L << (64 - n)));
+            }
+            row.limit(rowBytes);
+            writeFully(channel, row);
+        }
+    }
+
+    /**
+     * Чете 64 последователни бита, започвайки от дадена позиция.
+     * Битовете след края на буфера се връщат като нули.
+     */
+    private long readBits(int pos) {
+        int word = pos >>> 6;
+        int offset = pos & 63;
+        long bits = words[word] << offset;
+        if (offset != 0 && word + 1 < words.length) {
+            bits |= words[word + 1] >>> (64 - offset);
+        }
+        return bits;
+    }
+
+    /**
+     * Записва старшите {@code n} бита на {@code bits} от дадена позиция.
+     * Записът не трябва да пресича граница на дума.
+     */
+    private void writeBits(int pos, int n, long bits) {
+        int word = pos >>> 6;
+        int offset = pos & 63;
+        long mask = (-1L << (64 - n)) >>> offset;
+        words[word] = (words[word] & ~mask) | ((bits >>> offset) & mask);
+    }
+
+    /**
+     * Записва старшите {@code n} бита на {@code bits} от дадена позиция,
+     * като при нужда ги разделя между две думи.
+     */
+    private void putBits(int pos, int n, long bits) {
+        int first = Math.min(n, 64 - (pos & 63));
+        writeBits(pos, first, bits);
+        if (n > first) {
+            writeBits(pos + first, n - first, bits << first);
+        }
+    }
+
+    private void clearPadding() {
+        int tail = length & 63;
+        if (tail != 0) {
+            words[words.length - 1] &= -1L << (64 - tail);
+        }
+    }
+}
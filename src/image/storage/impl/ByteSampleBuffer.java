@@ -0,0 +1,167 @@
+package image.storage.impl;
+
+import image.storage.PixelKernel;
+import image.storage.SampleBuffer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Буфер с 8-битови семпли (стойности от 0 до 255), пазени в {@code byte[]}.
+ */
+public class ByteSampleBuffer extends SampleBuffer {
+    private final byte[] samples;
+
+    /**
+     * Създава нулиран буфер.
+     * @param length брой семпли
+     */
+    public ByteSampleBuffer(int length) {
+        this.samples = new byte[length];
+    }
+
+    private ByteSampleBuffer(byte[] samples) {
+        this.samples = samples;
+    }
+
+    @Override
+    public long length() {
+        return samples.length;
+    }
+
+    @Override
+    public int maxSupportedValue() {
+        return 0xFF;
+    }
+
+    @Override
+    public int get(long index) {
+        return samples[(int) index] & 0xFF;
+    }
+
+    @Override
+    public void set(long index, int value) {
+        samples[(int) index] = (byte) value;
+    }
+
+    @Override
+    public SampleBuffer copy() {
+        return new ByteSampleBuffer(samples.clone());
+    }
+
+    @Override
+    public void getRange(long offset, int[] dst, int dstOffset, int count) {
+        int start = (int) offset;
+        for (int i = 0; i < count; i++) {
+            dst[dstOffset + i] = samples[start + i] & 0xFF;
+        }
+    }
+
+    @Override
+    public void setRange(long offset, int[] src, int srcOffset, int count) {
+        int start = (int) offset;
+        for (int i = 0; i < count; i++) {
+            samples[start + i] = (byte) src[srcOffset + i];
+        }
+    }
+
+    @Override
+    public void copyRange(long srcPos, SampleBuffer dst, long dstPos, long count) {
+        if (dst instanceof ByteSampleBuffer other) {
+            System.arraycopy(samples, (int) srcPos, other.samples, (int) dstPos, (int) count);
+        } else {
+            super.copyRange(srcPos, dst, dstPos, count);
+        }
+    }
+
+    @Override
+    protected void copyTile(SampleBuffer dst, int dstWidth, int samplesPerPixel,
+                            long srcBase, long srcStepX, long srcStepY, int x0, int x1, int y0, int y1) {
+        if (!(dst instanceof ByteSampleBuffer other)) {
+            super.copyTile(dst, dstWidth, samplesPerPixel, srcBase, srcStepX, srcStepY, x0, x1, y0, y1);
+            return;
+        }
+        byte[] target = other.samples;
+        int sampleStep = (int) srcStepX * samplesPerPixel;
+        for (int y = y0; y < y1; y++) {
+            int d = (y * dstWidth + x0) * samplesPerPixel;
+            int s = (int) (srcBase + x0 * srcStepX + y * srcStepY) * samplesPerPixel;
+            if (samplesPerPixel == 1) {
+                for (int x = x0; x < x1; x++, d++, s += sampleStep) {
+                    target[d] = samples[s];
+                }
+            } else if (samplesPerPixel == 3) {
+                for (int x = x0; x < x1; x++, d += 3, s += sampleStep) {
+                    target[d] = samples[s];
+                    target[d + 1] = samples[s + 1];
+                    target[d + 2] = samples[s + 2];
+                }
+            } else {
+                for (int x = x0; x < x1; x++, d += samplesPerPixel, s += sampleStep) {
+                    System.arraycopy(samples, s, target, d, samplesPerPixel);
+                }
+            }
+        }
+    }
+
+    @Override
+    protected void invert(long from, long to, int maxValue) {
+        ArrayKernels.INSTANCE.invert(samples, (int) from, (int) to, maxValue);
+    }
+
+    @Override
+    protected void threshold(long from, long to, int threshold, int maxValue) {
+        ArrayKernels.INSTANCE.threshold(samples, (int) from, (int) to, threshold, maxValue);
+    }
+
+    @Override
+    protected void luminance(long from, long to, int redPercent, int greenPercent, int bluePercent) {
+        ArrayKernels.INSTANCE.luminance(samples, (int) from, (int) to, redPercent, greenPercent, bluePercent);
+    }
+
+    @Override
+    protected void mixChannels(long from, long to, PixelKernel kernel) {
+        for (int k = (int) from; k + 2 < to; k += 3) {
+            byte value = (byte) kernel.apply(samples[k] & 0xFF, samples[k + 1] & 0xFF, samples[k + 2] & 0xFF);
+            samples[k] = value;
+            samples[k + 1] = value;
+            samples[k + 2] = value;
+        }
+    }
+
+    @Override
+    protected void applyLookupTable(long from, long to, int[] table) {
+        for (int i = (int) from; i < to; i++) {
+            samples[i] = (byte) table[samples[i] & 0xFF];
+        }
+    }
+
+    @Override
+    public int maxSample() {
+        int max = 0;
+        for (byte sample : samples) {
+            max = Math.max(max, sample & 0xFF);
+        }
+        return max;
+    }
+
+    @Override
+    public void readSamples(ReadableByteChannel channel, int bytesPerSample) throws IOException {
+        if (bytesPerSample != 1) {
+            super.readSamples(channel, bytesPerSample);
+            return;
+        }
+        readFully(channel, ByteBuffer.wrap(samples));
+    }
+
+    @Override
+    public void writeSamples(WritableByteChannel channel, int bytesPerSample) throws IOException {
+        if (bytesPerSample != 1) {
+            super.writeSamples(channel, bytesPerSample);
+            return;
+        }
+        writeFully(channel, ByteBuffer.wrap(samples));
+    }
+}
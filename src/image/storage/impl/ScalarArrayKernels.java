@@ -0,0 +1,49 @@
+package image.storage.impl;
+
+import image.storage.PixelKernel;
+
+/**
+ * Обикновени цикли, без векторния API.
+ */
+class ScalarArrayKernels implements ArrayKernels {
+    @Override
+    public void invert(byte[] samples, int from, int to, int maxValue) {
+        for (int i = from; i < to; i++) {
+            samples[i] = (byte) (maxValue - (samples[i] & 0xFF));
+        }
+    }
+
+    @Override
+    public void threshold(byte[] samples, int from, int to, int threshold, int maxValue) {
+        byte high = (byte) maxValue;
+        for (int i = from; i < to; i++) {
+            samples[i] = (samples[i] & 0xFF) > threshold ? high : 0;
+        }
+    }
+
+    @Override
+    public void invert(short[] samples, int from, int to, int maxValue) {
+        for (int i = from; i < to; i++) {
+            samples[i] = (short) (maxValue - (samples[i] & 0xFFFF));
+        }
+    }
+
+    @Override
+    public void threshold(short[] samples, int from, int to, int threshold, int maxValue) {
+        short high = (short) maxValue;
+        for (int i = from; i < to; i++) {
+            samples[i] = (samples[i] & 0xFFFF) > threshold ? high : 0;
+        }
+    }
+
+    @Override
+    public void luminance(byte[] samples, int from, int to, int redPercent, int greenPercent, int bluePercent) {
+        for (int k = from; k + 2 < to; k += 3) {
+            byte value = (byte) PixelKernel.luminance(samples[k] & 0xFF, samples[k + 1] & 0xFF, samples[k + 2] & 0xFF,
+                    redPercent, greenPercent, bluePercent);
+            samples[k] = value;
+            samples[k + 1] = value;
+            samples[k + 2] = value;
+        }
+    }
+}
@@ -0,0 +1,406 @@
+package image.storage.impl;
+
+import image.storage.PixelKernel;
+import image.storage.SampleBuffer;
+import image.storage.TransferTarget;
+
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Буфер, чиито семпли са извън heap-а, в {@link MemorySegment} от дадена
+ * {@link Arena}. Паметта се освобождава, когато арената се затвори, а не
+ * от garbage collector-а, затова големите растери не се превръщат в
+ * humongous масиви в heap-а.
+ * <p>
+ * Семплите са подредени точно както в суровите netpbm формати: 8-битовите -
+ * по байт, 16-битовите - по два байта в big-endian ред, а битовете - по 8
+ * в байт, започвайки от старшия. Така четенето и записът на суров растер
+ * са директно копиране на байтове. Всички буфери, създадени от този
+ * (копия, завъртания, ленти при копиране при запис), са в същата арена.
+ * </p>
+ * <p>
+ * Буфер, създаден с {@link #map}, е растерът на файла, проектиран в паметта
+ * с копиране при запис ({@link FileChannel.MapMode#PRIVATE}): зареждането не
+ * чете нищо, а промените не стигат до файла. Буферът помни кои области от
+ * {@value #REGION_SIZE} байта са променяни и при запис прехвърля останалите
+ * направо от файла (вж. {@link TransferTarget}).
+ * </p>
+ */
+public class SegmentSampleBuffer extends SampleBuffer {
+    /**
+     * Растерът във файла започва от произволен байт, затова 16-битовите
+     * семпли може да не са подравнени.
+     */
+    private static final ValueLayout.OfShort BIG_ENDIAN_SHORT =
+            ValueLayout.JAVA_SHORT_UNALIGNED.withOrder(ByteOrder.BIG_ENDIAN);
+
+    /**
+     * Размер в байтове на областите, за които се помни дали са променяни.
+     */
+    private static final int REGION_SIZE = 1 << 20;
+
+    private final Arena arena;
+    private final MemorySegment segment;
+    private final long length;
+    private final int maxValue;
+    private final FileChannel source;
+    private final long sourceOffset;
+    private final boolean[] dirty;
+
+    /**
+     * Създава нулиран буфер в арената.
+     * @param arena арената, която определя кога паметта се освобождава
+     * @param length брой семпли
+     * @param maxValue най-голямата стойност, която ще се пази в буфера
+     */
+    public SegmentSampleBuffer(Arena arena, long length, int maxValue) {
+        this(arena, arena.allocate(byteSize(length, supportedValue(maxValue)), Long.BYTES),
+                length, supportedValue(maxValue), null, 0);
+    }
+
+    private SegmentSampleBuffer(Arena arena, MemorySegment segment, long length, int maxValue,
+                                FileChannel source, long sourceOffset) {
+        this.arena = arena;
+        this.segment = segment;
+        this.length = length;
+        this.maxValue = maxValue;
+        this.source = source;
+        this.sourceOffset = sourceOffset;
+        this.dirty = source == null ? null : new boolean[(int) ((segment.byteSize() + REGION_SIZE - 1) / REGION_SIZE)];
+    }
+
+    /**
+     * Проектира суров растер от файл в паметта, с копиране при запис.
+     * Проектирането е валидно, докато арената е отворена, а каналът
+     * трябва да остане отворен, докато буферът се използва.
+     *
+     * @param arena арената, която определя кога проектирането се премахва
+     * @param channel файлът, отворен за четене и запис (в него не се пише)
+     * @param offset отместването на растера във файла
+     * @param length брой семпли
+     * @param maxValue най-голямата стойност на семпъл във файла
+     * @return буферът върху файла
+     * @throws IOException ако файлът не може да бъде проектиран
+     */
+    public static SegmentSampleBuffer map(Arena arena, FileChannel channel, long offset,
+                                          long length, int maxValue) throws IOException {
+        int supported = supportedValue(maxValue);
+        MemorySegment segment = channel.map(FileChannel.MapMode.PRIVATE, offset, byteSize(length, supported), arena);
+        return new SegmentSampleBuffer(arena, segment, length, supported, channel, offset);
+    }
+
+    @Override
+    public long length() {
+        return length;
+    }
+
+    @Override
+    public int maxSupportedValue() {
+        return maxValue;
+    }
+
+    @Override
+    public int get(long index) {
+        return switch (maxValue) {
+            case 1 -> (segment.get(ValueLayout.JAVA_BYTE, index >>> 3) >>> (7 - (index & 7))) & 1;
+            case 0xFF -> segment.get(ValueLayout.JAVA_BYTE, index) & 0xFF;
+            default -> segment.getAtIndex(BIG_ENDIAN_SHORT, index) & 0xFFFF;
+        };
+    }
+
+    @Override
+    public void set(long index, int value) {
+        touch(index, index + 1);
+        switch (maxValue) {
+            case 1 -> {
+                long offset = index >>> 3;
+                int mask = 0x80 >>> (index & 7);
+                int bits = segment.get(ValueLayout.JAVA_BYTE, offset);
+                segment.set(ValueLayout.JAVA_BYTE, offset, (byte) (value != 0 ? bits | mask : bits & ~mask));
+            }
+            case 0xFF -> segment.set(ValueLayout.JAVA_BYTE, index, (byte) value);
+            default -> segment.setAtIndex(BIG_ENDIAN_SHORT, index, (short) value);
+        }
+    }
+
+    @Override
+    public SampleBuffer copy() {
+        SegmentSampleBuffer copy = new SegmentSampleBuffer(arena, length, maxValue);
+        MemorySegment.copy(segment, 0, copy.segment, 0, segment.byteSize());
+        return copy;
+    }
+
+    @Override
+    protected SampleBuffer allocateLike(long length, int maxValue) {
+        return new SegmentSampleBuffer(arena, length, maxValue);
+    }
+
+    @Override
+    public void getRange(long offset, int[] dst, int dstOffset, int count) {
+        if (maxValue == 0xFF) {
+            for (int i = 0; i < count; i++) {
+                dst[dstOffset + i] = segment.get(ValueLayout.JAVA_BYTE, offset + i) & 0xFF;
+            }
+        } else if (maxValue == 0xFFFF) {
+            for (int i = 0; i < count; i++) {
+                dst[dstOffset + i] = segment.getAtIndex(BIG_ENDIAN_SHORT, offset + i) & 0xFFFF;
+            }
+        } else {
+            super.getRange(offset, dst, dstOffset, count);
+        }
+    }
+
+    @Override
+    public void setRange(long offset, int[] src, int srcOffset, int count) {
+        touch(offset, offset + count);
+        if (maxValue == 0xFF) {
+            for (int i = 0; i < count; i++) {
+                segment.set(ValueLayout.JAVA_BYTE, offset + i, (byte) src[srcOffset + i]);
+            }
+        } else if (maxValue == 0xFFFF) {
+            for (int i = 0; i < count; i++) {
+                segment.setAtIndex(BIG_ENDIAN_SHORT, offset + i, (short) src[srcOffset + i]);
+            }
+        } else {
+            super.setRange(offset, src, srcOffset, count);
+        }
+    }
+
+    /**
+     * Между буфери в памет извън heap-а със същия тип се копират байтове
+     * (при битовете - когато и двете позиции са в началото на байт).
+     */
+    @Override
+    public void copyRange(long srcPos, SampleBuffer dst, long dstPos, long count) {
+        if (!(dst instanceof SegmentSampleBuffer other) || other.maxValue != maxValue) {
+            super.copyRange(srcPos, dst, dstPos, count);
+            return;
+        }
+        other.touch(dstPos, dstPos + count);
+        if (maxValue != 1) {
+            int bytes = maxValue == 0xFF ? 1 : 2;
+            MemorySegment.copy(segment, srcPos * bytes, other.segment, dstPos * bytes, count * bytes);
+            return;
+        }
+        long done = 0;
+        if ((srcPos & 7) == 0 && (dstPos & 7) == 0) {
+            done = count & ~7;
+            MemorySegment.copy(segment, srcPos >>> 3, other.segment, dstPos >>> 3, done >>> 3);
+        }
+        super.copyRange(srcPos + done, dst, dstPos + done, count - done);
+    }
+
+    @Override
+    protected void copyTile(SampleBuffer dst, int dstWidth, int samplesPerPixel,
+                            long srcBase, long srcStepX, long srcStepY, int x0, int x1, int y0, int y1) {
+        if (!(dst instanceof SegmentSampleBuffer other) || other.maxValue != maxValue || maxValue == 1) {
+            super.copyTile(dst, dstWidth, samplesPerPixel, srcBase, srcStepX, srcStepY, x0, x1, y0, y1);
+            return;
+        }
+        long bytesPerPixel = (maxValue == 0xFF ? 1L : 2L) * samplesPerPixel;
+        for (int y = y0; y < y1; y++) {
+            other.touch(((long) y * dstWidth + x0) * samplesPerPixel, ((long) y * dstWidth + x1) * samplesPerPixel);
+            long d = ((long) y * dstWidth + x0) * bytesPerPixel;
+            long s = (srcBase + x0 * srcStepX + y * srcStepY) * bytesPerPixel;
+            long step = srcStepX * bytesPerPixel;
+            for (int x = x0; x < x1; x++, d += bytesPerPixel, s += step) {
+                MemorySegment.copy(segment, s, other.segment, d, bytesPerPixel);
+            }
+        }
+    }
+
+    @Override
+    protected void invert(long from, long to, int maxValue) {
+        touch(from, to);
+        if (this.maxValue == 0xFF) {
+            for (long i = from; i < to; i++) {
+                segment.set(ValueLayout.JAVA_BYTE, i, (byte) (maxValue - (segment.get(ValueLayout.JAVA_BYTE, i) & 0xFF)));
+            }
+        } else if (this.maxValue == 0xFFFF) {
+            for (long i = from; i < to; i++) {
+                segment.setAtIndex(BIG_ENDIAN_SHORT, i, (short) (maxValue - (segment.getAtIndex(BIG_ENDIAN_SHORT, i) & 0xFFFF)));
+            }
+        } else {
+            super.invert(from, to, maxValue);
+        }
+    }
+
+    @Override
+    protected void threshold(long from, long to, int threshold, int maxValue) {
+        touch(from, to);
+        if (this.maxValue == 0xFF) {
+            for (long i = from; i < to; i++) {
+                int value = segment.get(ValueLayout.JAVA_BYTE, i) & 0xFF;
+                segment.set(ValueLayout.JAVA_BYTE, i, (byte) (value > threshold ? maxValue : 0));
+            }
+        } else if (this.maxValue == 0xFFFF) {
+            for (long i = from; i < to; i++) {
+                int value = segment.getAtIndex(BIG_ENDIAN_SHORT, i) & 0xFFFF;
+                segment.setAtIndex(BIG_ENDIAN_SHORT, i, (short) (value > threshold ? maxValue : 0));
+            }
+        } else {
+            super.threshold(from, to, threshold, maxValue);
+        }
+    }
+
+    @Override
+    protected void applyLookupTable(long from, long to, int[] table) {
+        touch(from, to);
+        if (maxValue == 0xFF) {
+            for (long i = from; i < to; i++) {
+                segment.set(ValueLayout.JAVA_BYTE, i, (byte) table[segment.get(ValueLayout.JAVA_BYTE, i) & 0xFF]);
+            }
+        } else if (maxValue == 0xFFFF) {
+            for (long i = from; i < to; i++) {
+                segment.setAtIndex(BIG_ENDIAN_SHORT, i, (short) table[segment.getAtIndex(BIG_ENDIAN_SHORT, i) & 0xFFFF]);
+            }
+        } else {
+            super.applyLookupTable(from, to, table);
+        }
+    }
+
+    @Override
+    protected void mixChannels(long from, long to, PixelKernel kernel) {
+        touch(from, to);
+        if (maxValue != 0xFF) {
+            super.mixChannels(from, to, kernel);
+            return;
+        }
+        for (long k = from; k + 2 < to; k += 3) {
+            byte value = (byte) kernel.apply(segment.get(ValueLayout.JAVA_BYTE, k) & 0xFF,
+                    segment.get(ValueLayout.JAVA_BYTE, k + 1) & 0xFF, segment.get(ValueLayout.JAVA_BYTE, k + 2) & 0xFF);
+            segment.set(ValueLayout.JAVA_BYTE, k, value);
+            segment.set(ValueLayout.JAVA_BYTE, k + 1, value);
+            segment.set(ValueLayout.JAVA_BYTE, k + 2, value);
+        }
+    }
+
+    /**
+     * Когато форматът на файла съвпада с подредбата в паметта, растерът се
+     * чете направо в сегмента.
+     */
+    @Override
+    public void readSamples(ReadableByteChannel channel, int bytesPerSample) throws IOException {
+        if (!matches(bytesPerSample)) {
+            super.readSamples(channel, bytesPerSample);
+            return;
+        }
+        readBytes(channel);
+    }
+
+    /**
+     * Когато редовете са цял брой байтове, пакетираните битове във файла
+     * съвпадат с подредбата в паметта и се четат направо в сегмента.
+     */
+    @Override
+    public void readPackedRows(ReadableByteChannel channel, int rowLength) throws IOException {
+        if (maxValue != 1 || (rowLength & 7) != 0) {
+            super.readPackedRows(channel, rowLength);
+            return;
+        }
+        readBytes(channel);
+    }
+
+    @Override
+    public void writeSamples(WritableByteChannel channel, int bytesPerSample) throws IOException {
+        if (!writeSamplesDirect(channel, bytesPerSample, 0, length)) {
+            super.writeSamples(channel, bytesPerSample);
+        }
+    }
+
+    @Override
+    protected boolean writeSamplesDirect(WritableByteChannel channel, int bytesPerSample,
+                                         long offset, long count) throws IOException {
+        if (!matches(bytesPerSample)) {
+            return false;
+        }
+        writeBytes(channel, byteIndex(offset), byteIndex(offset + count));
+        return true;
+    }
+
+    @Override
+    public void writePackedRows(WritableByteChannel channel, int rowLength) throws IOException {
+        if (maxValue != 1 || (rowLength & 7) != 0) {
+            super.writePackedRows(channel, rowLength);
+            return;
+        }
+        writeBytes(channel, 0, segment.byteSize());
+    }
+
+    private void readBytes(ReadableByteChannel channel) throws IOException {
+        touch(0, length);
+        for (long offset = 0; offset < segment.byteSize(); offset += REGION_SIZE) {
+            readFully(channel, segment.asSlice(offset, Math.min(REGION_SIZE, segment.byteSize() - offset)).asByteBuffer());
+        }
+    }
+
+    /**
+     * Записва байтовете {@code [from, to)} от сегмента. Поредица от непроменени
+     * области на проектиран файл се прехвърля направо от файла, когато каналът
+     * поддържа това.
+     */
+    private void writeBytes(WritableByteChannel channel, long from, long to) throws IOException {
+        while (from < to) {
+            long end = Math.min(to, (from / REGION_SIZE + 1) * REGION_SIZE);
+            if (dirty != null && !dirty[(int) (from / REGION_SIZE)] && channel instanceof TransferTarget target) {
+                while (end < to && !dirty[(int) (end / REGION_SIZE)]) {
+                    end = Math.min(to, end + REGION_SIZE);
+                }
+                target.transferFrom(source, sourceOffset + from, end - from);
+            } else {
+                writeFully(channel, segment.asSlice(from, end - from).asByteBuffer());
+            }
+            from = end;
+        }
+    }
+
+    /**
+     * Отбелязва като променени областите, в които са семплите {@code [from, to)}.
+     */
+    private void touch(long from, long to) {
+        if (dirty == null || from >= to) {
+            return;
+        }
+        for (long region = byteIndex(from) / REGION_SIZE; region <= byteIndex(to - 1) / REGION_SIZE; region++) {
+            dirty[(int) region] = true;
+        }
+    }
+
+    /**
+     * Връща позицията в сегмента на байта, в който започва семпъл.
+     */
+    private long byteIndex(long sample) {
+        return switch (maxValue) {
+            case 1 -> sample >>> 3;
+            case 0xFF -> sample;
+            default -> 2 * sample;
+        };
+    }
+
+    /**
+     * Проверява дали семплите във файл с {@code bytesPerSample} байта на семпъл
+     * са подредени като в сегмента.
+     */
+    private boolean matches(int bytesPerSample) {
+        return (maxValue == 0xFF && bytesPerSample == 1) || (maxValue == 0xFFFF && bytesPerSample == 2);
+    }
+
+    private static int supportedValue(int maxValue) {
+        return maxValue <= 1 ? 1 : maxValue <= 0xFF ? 0xFF : 0xFFFF;
+    }
+
+    private static long byteSize(long length, int maxValue) {
+        return switch (maxValue) {
+            case 1 -> (length + 7) / 8;
+            case 0xFF -> length;
+            default -> 2 * length;
+        };
+    }
+}
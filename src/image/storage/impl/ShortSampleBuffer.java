@@ -0,0 +1,181 @@
+package image.storage.impl;
+
+import image.storage.PixelKernel;
+import image.storage.SampleBuffer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Буфер с 16-битови семпли (стойности от 0 до 65535), пазени в {@code short[]}.
+ */
+public class ShortSampleBuffer extends SampleBuffer {
+    private final short[] samples;
+
+    /**
+     * Създава нулиран буфер.
+     * @param length брой семпли
+     */
+    public ShortSampleBuffer(int length) {
+        this.samples = new short[length];
+    }
+
+    private ShortSampleBuffer(short[] samples) {
+        this.samples = samples;
+    }
+
+    @Override
+    public long length() {
+        return samples.length;
+    }
+
+    @Override
+    public int maxSupportedValue() {
+        return 0xFFFF;
+    }
+
+    @Override
+    public int get(long index) {
+        return samples[(int) index] & 0xFFFF;
+    }
+
+    @Override
+    public void set(long index, int value) {
+        samples[(int) index] = (short) value;
+    }
+
+    @Override
+    public SampleBuffer copy() {
+        return new ShortSampleBuffer(samples.clone());
+    }
+
+    @Override
+    public void getRange(long offset, int[] dst, int dstOffset, int count) {
+        int start = (int) offset;
+        for (int i = 0; i < count; i++) {
+            dst[dstOffset + i] = samples[start + i] & 0xFFFF;
+        }
+    }
+
+    @Override
+    public void setRange(long offset, int[] src, int srcOffset, int count) {
+        int start = (int) offset;
+        for (int i = 0; i < count; i++) {
+            samples[start + i] = (short) src[srcOffset + i];
+        }
+    }
+
+    @Override
+    public void copyRange(long srcPos, SampleBuffer dst, long dstPos, long count) {
+        if (dst instanceof ShortSampleBuffer other) {
+            System.arraycopy(samples, (int) srcPos, other.samples, (int) dstPos, (int) count);
+        } else {
+            super.copyRange(srcPos, dst, dstPos, count);
+        }
+    }
+
+    @Override
+    protected void copyTile(SampleBuffer dst, int dstWidth, int samplesPerPixel,
+                            long srcBase, long srcStepX, long srcStepY, int x0, int x1, int y0, int y1) {
+        if (!(dst instanceof ShortSampleBuffer other)) {
+            super.copyTile(dst, dstWidth, samplesPerPixel, srcBase, srcStepX, srcStepY, x0, x1, y0, y1);
+            return;
+        }
+        short[] target = other.samples;
+        int sampleStep = (int) srcStepX * samplesPerPixel;
+        for (int y = y0; y < y1; y++) {
+            int d = (y * dstWidth + x0) * samplesPerPixel;
+            int s = (int) (srcBase + x0 * srcStepX + y * srcStepY) * samplesPerPixel;
+            if (samplesPerPixel == 1) {
+                for (int x = x0; x < x1; x++, d++, s += sampleStep) {
+                    target[d] = samples[s];
+                }
+            } else if (samplesPerPixel == 3) {
+                for (int x = x0; x < x1; x++, d += 3, s += sampleStep) {
+                    target[d] = samples[s];
+                    target[d + 1] = samples[s + 1];
+                    target[d + 2] = samples[s + 2];
+                }
+            } else {
+                for (int x = x0; x < x1; x++, d += samplesPerPixel, s += sampleStep) {
+                    System.arraycopy(samples, s, target, d, samplesPerPixel);
+                }
+            }
+        }
+    }
+
+    @Override
+    protected void invert(long from, long to, int maxValue) {
+        ArrayKernels.INSTANCE.invert(samples, (int) from, (int) to, maxValue);
+    }
+
+    @Override
+    protected void threshold(long from, long to, int threshold, int maxValue) {
+        ArrayKernels.INSTANCE.threshold(samples, (int) from, (int) to, threshold, maxValue);
+    }
+
+    @Override
+    protected void mixChannels(long from, long to, PixelKernel kernel) {
+        for (int k = (int) from; k + 2 < to; k += 3) {
+            short value = (short) kernel.apply(samples[k] & 0xFFFF, samples[k + 1] & 0xFFFF, samples[k + 2] & 0xFFFF);
+            samples[k] = value;
+            samples[k + 1] = value;
+            samples[k + 2] = value;
+        }
+    }
+
+    @Override
+    protected void applyLookupTable(long from, long to, int[] table) {
+        for (int i = (int) from; i < to; i++) {
+            samples[i] = (short) table[samples[i] & 0xFFFF];
+        }
+    }
+
+    @Override
+    public int maxSample() {
+        int max = 0;
+        for (short sample : samples) {
+            max = Math.max(max, sample & 0xFFFF);
+        }
+        return max;
+    }
+
+    @Override
+    public void readSamples(ReadableByteChannel channel, int bytesPerSample) throws IOException {
+        if (bytesPerSample != 2) {
+            super.readSamples(channel, bytesPerSample);
+            return;
+        }
+        ByteBuffer chunk = ByteBuffer.allocate(CHUNK_SIZE);
+        int index = 0;
+        while (index < samples.length) {
+            int count = Math.min(CHUNK_SIZE / 2, samples.length - index);
+            chunk.clear();
+            chunk.limit(count * 2);
+            readFully(channel, chunk);
+            chunk.flip();
+            chunk.asShortBuffer().get(samples, index, count);
+            index += count;
+        }
+    }
+
+    @Override
+    public void writeSamples(WritableByteChannel channel, int bytesPerSample) throws IOException {
+        if (bytesPerSample != 2) {
+            super.writeSamples(channel, bytesPerSample);
+            return;
+        }
+        ByteBuffer chunk = ByteBuffer.allocate(CHUNK_SIZE);
+        int index = 0;
+        while (index < samples.length) {
+            int count = Math.min(CHUNK_SIZE / 2, samples.length - index);
+            chunk.clear();
+            chunk.asShortBuffer().put(samples, index, count);
+            chunk.limit(count * 2);
+            writeFully(channel, chunk);
+            index += count;
+        }
+    }
+}
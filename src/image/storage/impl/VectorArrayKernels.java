@@ -0,0 +1,124 @@
+package image.storage.impl;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.ShortVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShuffle;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Реализация с {@code jdk.incubator.vector}. Основната част от диапазона се
+ * обработва с вектори с предпочитаната за процесора ширина, а остатъкът -
+ * със скаларните цикли.
+ * <p>
+ * При luminance се чете цял байтов вектор, каналите на първите му пиксели се
+ * разделят с пренареждане в рамките на вектора, пресмятат се като {@code int}
+ * и яркостта се връща на местата на трите канала с обратното пренареждане.
+ * Индексното четене и запис на байтове не се компилират до векторни инструкции
+ * и заделят обекти за всяка итерация. Делението на 100 е умножение и
+ * отместване; вектор, в който има пиксел със сума, кратна на 100, се
+ * пресмята със скаларния цикъл.
+ * </p>
+ */
+class VectorArrayKernels extends ScalarArrayKernels {
+    private static final VectorSpecies<Byte> BYTES = ByteVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Short> SHORTS = ShortVector.SPECIES_PREFERRED;
+    /**
+     * Вектор с четвърт от броя байтове, колкото пиксела има в три четвърти от байтовия вектор.
+     */
+    private static final VectorSpecies<Integer> INTS = VectorSpecies.of(int.class, BYTES.vectorShape());
+    private static final int PIXELS = INTS.length();
+
+    /**
+     * Подрежда червените, зелените и сините семпли на пикселите едни след други.
+     */
+    private static final VectorShuffle<Byte> SPLIT_CHANNELS =
+            VectorShuffle.fromOp(BYTES, i -> i < 3 * PIXELS ? i % PIXELS * 3 + i / PIXELS : i);
+    /**
+     * Повтаря яркостта на всеки пиксел на мястото на трите му канала.
+     */
+    private static final VectorShuffle<Byte> SPREAD_GRAY = VectorShuffle.fromOp(BYTES, i -> i / 3 % PIXELS);
+    /**
+     * Байтовете след последния цял пиксел, които се записват непроменени.
+     */
+    private static final VectorMask<Byte> TAIL = BYTES.indexInRange(0, 3 * PIXELS).not();
+    /**
+     * {@code (sum * QUOTIENT_MULTIPLIER) >>> QUOTIENT_SHIFT == sum / 100} за всяко {@code sum} до 43690.
+     */
+    private static final int QUOTIENT_MULTIPLIER = 41944;
+    private static final int QUOTIENT_SHIFT = 22;
+
+    @Override
+    public void invert(byte[] samples, int from, int to, int maxValue) {
+        ByteVector max = ByteVector.broadcast(BYTES, (byte) maxValue);
+        int i = from;
+        for (int end = from + BYTES.loopBound(to - from); i < end; i += BYTES.length()) {
+            max.sub(ByteVector.fromArray(BYTES, samples, i)).intoArray(samples, i);
+        }
+        super.invert(samples, i, to, maxValue);
+    }
+
+    @Override
+    public void threshold(byte[] samples, int from, int to, int threshold, int maxValue) {
+        ByteVector high = ByteVector.broadcast(BYTES, (byte) maxValue);
+        ByteVector low = ByteVector.zero(BYTES);
+        int i = from;
+        for (int end = from + BYTES.loopBound(to - from); i < end; i += BYTES.length()) {
+            VectorMask<Byte> above = ByteVector.fromArray(BYTES, samples, i)
+                    .compare(VectorOperators.UNSIGNED_GT, (byte) threshold);
+            low.blend(high, above).intoArray(samples, i);
+        }
+        super.threshold(samples, i, to, threshold, maxValue);
+    }
+
+    @Override
+    public void invert(short[] samples, int from, int to, int maxValue) {
+        ShortVector max = ShortVector.broadcast(SHORTS, (short) maxValue);
+        int i = from;
+        for (int end = from + SHORTS.loopBound(to - from); i < end; i += SHORTS.length()) {
+            max.sub(ShortVector.fromArray(SHORTS, samples, i)).intoArray(samples, i);
+        }
+        super.invert(samples, i, to, maxValue);
+    }
+
+    @Override
+    public void threshold(short[] samples, int from, int to, int threshold, int maxValue) {
+        ShortVector high = ShortVector.broadcast(SHORTS, (short) maxValue);
+        ShortVector low = ShortVector.zero(SHORTS);
+        int i = from;
+        for (int end = from + SHORTS.loopBound(to - from); i < end; i += SHORTS.length()) {
+            VectorMask<Short> above = ShortVector.fromArray(SHORTS, samples, i)
+                    .compare(VectorOperators.UNSIGNED_GT, (short) threshold);
+            low.blend(high, above).intoArray(samples, i);
+        }
+        super.threshold(samples, i, to, threshold, maxValue);
+    }
+
+    @Override
+    public void luminance(byte[] samples, int from, int to, int redPercent, int greenPercent, int bluePercent) {
+        int k = from;
+        for (; k + BYTES.length() <= to; k += 3 * PIXELS) {
+            ByteVector pixels = ByteVector.fromArray(BYTES, samples, k);
+            ByteVector channels = pixels.rearrange(SPLIT_CHANNELS);
+            IntVector sum = channel(channels, 0).mul(redPercent)
+                    .add(channel(channels, 1).mul(greenPercent))
+                    .add(channel(channels, 2).mul(bluePercent));
+            IntVector gray = sum.mul(QUOTIENT_MULTIPLIER).lanewise(VectorOperators.LSHR, QUOTIENT_SHIFT);
+            if (gray.mul(100).eq(sum).andNot(sum.eq(0)).anyTrue()) {
+                super.luminance(samples, k, k + 3 * PIXELS, redPercent, greenPercent, bluePercent);
+                continue;
+            }
+            ((ByteVector) gray.convertShape(VectorOperators.I2B, BYTES, 0))
+                    .rearrange(SPREAD_GRAY)
+                    .blend(pixels, TAIL)
+                    .intoArray(samples, k);
+        }
+        super.luminance(samples, k, to, redPercent, greenPercent, bluePercent);
+    }
+
+    private static IntVector channel(ByteVector channels, int channel) {
+        return (IntVector) channels.convertShape(VectorOperators.ZERO_EXTEND_B2I, INTS, channel);
+    }
+}
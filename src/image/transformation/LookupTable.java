@@ -0,0 +1,66 @@
+package image.transformation;
+
+import java.util.function.IntUnaryOperator;
+
+/**
+ * Таблица, която съпоставя на всяка стойност на семпъл от 0 до maxValue нова стойност.
+ * <p>
+ * Всяка трансформация, която зависи само от стойността на един семпъл, и всяка
+ * верига от такива трансформации може да се пресметне предварително в таблица,
+ * след което се прилага с едно четене от таблицата на семпъл.
+ * </p>
+ */
+public final class LookupTable {
+    private final int[] values;
+
+    private LookupTable(int[] values) {
+        this.values = values;
+    }
+
+    /**
+     * Създава таблица, която не променя стойностите.
+     * @param maxValue максималната стойност на семпъл
+     * @return идентитетната таблица
+     */
+    public static LookupTable identity(int maxValue) {
+        int[] values = new int[maxValue + 1];
+        for (int i = 0; i <= maxValue; i++) {
+            values[i] = i;
+        }
+        return new LookupTable(values);
+    }
+
+    /**
+     * Създава таблица, която прилага първо тази таблица, а след нея {@code operation}.
+     * @param operation функция, която връща стойности от 0 до maxValue
+     * @return новата таблица
+     */
+    public LookupTable andThen(IntUnaryOperator operation) {
+        int[] composed = new int[values.length];
+        for (int i = 0; i < values.length; i++) {
+            composed[i] = operation.applyAsInt(values[i]);
+        }
+        return new LookupTable(composed);
+    }
+
+    /**
+     * Проверява дали таблицата не променя стойностите.
+     * @return true, ако всяка стойност се съпоставя на себе си
+     */
+    public boolean isIdentity() {
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] != i) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Връща стойностите на таблицата. Масивът не се копира и не трябва да се променя.
+     * @return масив с дължина maxValue + 1
+     */
+    public int[] values() {
+        return values;
+    }
+}
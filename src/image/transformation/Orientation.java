@@ -0,0 +1,141 @@
+package image.transformation;
+
+import image.storage.SampleBuffer;
+
+import java.util.List;
+
+/**
+ * Една от осемте ориентации, които се получават със завъртания на 90 градуса
+ * и огледални обръщания. Всяка ориентация е огледално обръщане по
+ * хоризонтала (ако {@link #isMirrored()}), последвано от {@link #getQuarterTurns()}
+ * четвърт оборота по часовниковата стрелка.
+ * <p>
+ * Ориентациите само преместват пиксели, затова изображението може да пази
+ * пикселите си непроменени и да ги чете през изглед ({@link #view}), докато
+ * някоя операция не се нуждае от реалното им подреждане ({@link #apply}).
+ * </p>
+ */
+public enum Orientation {
+    IDENTITY(0, false, List.of()),
+    ROTATE_RIGHT(1, false, List.of("rotate_right")),
+    ROTATE_180(2, false, List.of("rotate_180")),
+    ROTATE_LEFT(3, false, List.of("rotate_left")),
+    FLIP_HORIZONTAL(0, true, List.of("flip_horizontal")),
+    TRANSVERSE(1, true, List.of("transpose", "rotate_180")),
+    FLIP_VERTICAL(2, true, List.of("flip_vertical")),
+    TRANSPOSE(3, true, List.of("transpose"));
+
+    private final int quarterTurns;
+    private final boolean mirrored;
+    private final List<String> steps;
+
+    Orientation(int quarterTurns, boolean mirrored, List<String> steps) {
+        this.quarterTurns = quarterTurns;
+        this.mirrored = mirrored;
+        this.steps = steps;
+    }
+
+    /**
+     * Връща ориентацията с дадения брой четвърт обороти и обръщане.
+     * @param quarterTurns брой четвърт обороти по часовниковата стрелка
+     * @param mirrored дали преди завъртането има огледално обръщане
+     * @return ориентацията
+     */
+    public static Orientation of(int quarterTurns, boolean mirrored) {
+        return values()[(mirrored ? 4 : 0) + Math.floorMod(quarterTurns, 4)];
+    }
+
+    /**
+     * Връща ориентацията, която се получава, като след тази се приложи {@code next}.
+     * Огледалното обръщане сменя посоката на предхождащото го завъртане.
+     * @param next следващата ориентация
+     * @return съставената ориентация
+     */
+    public Orientation then(Orientation next) {
+        int turns = next.mirrored ? next.quarterTurns - quarterTurns : quarterTurns + next.quarterTurns;
+        return of(turns, mirrored != next.mirrored);
+    }
+
+    /**
+     * Връща броя четвърт обороти по часовниковата стрелка след обръщането.
+     * @return от 0 до 3
+     */
+    public int getQuarterTurns() {
+        return quarterTurns;
+    }
+
+    /**
+     * Проверява дали ориентацията започва с огледално обръщане по хоризонтала.
+     * @return true при огледално обръщане
+     */
+    public boolean isMirrored() {
+        return mirrored;
+    }
+
+    /**
+     * Проверява дали ориентацията разменя ширината и височината.
+     * @return true при нечетен брой четвърт обороти
+     */
+    public boolean swapsDimensions() {
+        return quarterTurns % 2 == 1;
+    }
+
+    /**
+     * Връща имената на трансформациите, с които се получава ориентацията.
+     * @return имената, с които се пазят в сесията
+     */
+    public List<String> getSteps() {
+        return steps;
+    }
+
+    /**
+     * Връща изглед към пикселите в тази ориентация, без да ги копира.
+     * @param pixels пикселите в изходната ориентация
+     * @param width ширината на изображението преди ориентацията
+     * @param height височината на изображението преди ориентацията
+     * @param samplesPerPixel брой семпли в пиксел
+     * @return изгледът или самият буфер при {@link #IDENTITY}
+     */
+    public SampleBuffer view(SampleBuffer pixels, int width, int height, int samplesPerPixel) {
+        if (this == IDENTITY) {
+            return pixels;
+        }
+        long base = source(0, 0, width, height);
+        return pixels.remapped(swapsDimensions() ? height : width, samplesPerPixel,
+                base, source(1, 0, width, height) - base, source(0, 1, width, height) - base);
+    }
+
+    /**
+     * Пренарежда пикселите в тази ориентация - на място, когато е възможно.
+     * @param pixels пикселите в изходната ориентация
+     * @param width ширината на изображението преди ориентацията
+     * @param height височината на изображението преди ориентацията
+     * @param samplesPerPixel брой семпли в пиксел
+     * @return пренаредените пиксели - същият или нов буфер
+     */
+    public SampleBuffer apply(SampleBuffer pixels, int width, int height, int samplesPerPixel) {
+        if (mirrored) {
+            pixels = pixels.flipHorizontal(width, height, samplesPerPixel);
+        }
+        return pixels.rotate(width, height, samplesPerPixel, quarterTurns);
+    }
+
+    /**
+     * Връща индекса на пиксела в изходното изображение, който в тази
+     * ориентация е на позиция (x, y). Пресмятането е линейно по x и y,
+     * така че работи и за координати извън изображението.
+     */
+    private long source(int x, int y, int width, int height) {
+        int w = swapsDimensions() ? height : width;
+        for (int i = 0; i < quarterTurns; i++) {
+            int previousX = y;
+            y = w - 1 - x;
+            x = previousX;
+            w = (w == width) ? height : width;
+        }
+        if (mirrored) {
+            x = width - 1 - x;
+        }
+        return (long) y * width + x;
+    }
+}
@@ -0,0 +1,47 @@
+package image.transformation;
+
+import image.storage.PixelKernel;
+
+import java.util.function.IntUnaryOperator;
+
+/**
+ * Трансформация, която променя всеки пиксел поотделно, без да зависи от
+ * позицията му. Такива трансформации могат да се изпълнят заедно с едно
+ * обхождане на пикселите и се разменят свободно със завъртанията.
+ */
+public enum PointOperation {
+    GRAYSCALE("grayscale"),
+    MONOCHROME("monochrome"),
+    NEGATIVE("negative");
+
+    private final String name;
+
+    PointOperation(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Връща името на трансформацията, с което тя се пази в сесията.
+     * @return името на трансформацията
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Връща действието на трансформацията върху сив пиксел - пиксел от PGM или PBM
+     * изображение или PPM пиксел с равни канали - като функция на стойността му.
+     * Grayscale не е тъждество върху сив пиксел, защото претеглената сума в
+     * {@code double} се отрязва и може да излезе с единица по-малка (например 1 става 0).
+     *
+     * @param maxValue максималната стойност на семпъл
+     * @return функцията върху стойността на пиксела
+     */
+    public IntUnaryOperator onGray(int maxValue) {
+        return switch (this) {
+            case GRAYSCALE -> value -> PixelKernel.luminance(value, value, value, 30, 59, 11);
+            case MONOCHROME -> value -> value > maxValue / 2 ? maxValue : 0;
+            case NEGATIVE -> value -> maxValue - value;
+        };
+    }
+}
@@ -0,0 +1,131 @@
+package image.transformation;
+
+import exception.EditorException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Оптимизиран план за изпълнение на чакащите трансформации на една сесия.
+ * <p>
+ * Трансформациите на пиксели ({@link PointOperation}) не зависят от позицията
+ * на пиксела и затова се разменят със завъртанията и обръщанията. Планът ги
+ * изважда пред тях и ги опростява за конкретния формат:
+ * </p>
+ * <ul>
+ *     <li>трансформации без ефект върху формата се премахват (grayscale за PGM и
+ *     PBM, monochrome за PBM);</li>
+ *     <li>две поредни negative се унищожават, а поредни monochrome се сливат в едно;</li>
+ *     <li>всички завъртания и обръщания се събират в една {@link Orientation}.</li>
+ * </ul>
+ * <p>
+ * Така се изпълняват най-много едно обхождане на пикселите и едно преподреждане.
+ * </p>
+ */
+public class TransformationPlan {
+    private final List<PointOperation> pointOperations;
+    private final Orientation orientation;
+
+    private TransformationPlan(List<PointOperation> pointOperations, Orientation orientation) {
+        this.pointOperations = Collections.unmodifiableList(pointOperations);
+        this.orientation = orientation;
+    }
+
+    /**
+     * Съставя оптимизиран план от списъка с трансформации на сесията.
+     *
+     * @param transformations имената на трансформациите в реда на задаване
+     * @param format форматът на изображението ("ppm", "pgm" или "pbm")
+     * @return планът за изпълнение
+     * @throws EditorException при непозната трансформация
+     */
+    public static TransformationPlan compile(List<String> transformations, String format) throws EditorException {
+        List<PointOperation> pointOperations = new ArrayList<>();
+        Orientation orientation = Orientation.IDENTITY;
+
+        for (String transformation : transformations) {
+            switch (transformation.toLowerCase()) {
+                case "grayscale" -> addPointOperation(pointOperations, PointOperation.GRAYSCALE, format);
+                case "monochrome" -> addPointOperation(pointOperations, PointOperation.MONOCHROME, format);
+                case "negative" -> addPointOperation(pointOperations, PointOperation.NEGATIVE, format);
+                case "rotate_left" -> orientation = orientation.then(Orientation.ROTATE_LEFT);
+                case "rotate_right" -> orientation = orientation.then(Orientation.ROTATE_RIGHT);
+                case "rotate_180" -> orientation = orientation.then(Orientation.ROTATE_180);
+                case "flip_horizontal" -> orientation = orientation.then(Orientation.FLIP_HORIZONTAL);
+                case "flip_vertical" -> orientation = orientation.then(Orientation.FLIP_VERTICAL);
+                case "transpose" -> orientation = orientation.then(Orientation.TRANSPOSE);
+                default -> throw new EditorException("Unknown transformation: " + transformation);
+            }
+        }
+        return new TransformationPlan(pointOperations, orientation);
+    }
+
+    /**
+     * Добавя трансформация на пиксели в края на плана, като я опростява
+     * спрямо последната добавена.
+     */
+    private static void addPointOperation(List<PointOperation> pointOperations, PointOperation operation,
+                                          String format) {
+        if (!hasEffect(operation, format)) {
+            return;
+        }
+
+        int last = pointOperations.size() - 1;
+        if (last >= 0 && pointOperations.get(last) == operation) {
+            if (operation == PointOperation.NEGATIVE) {
+                pointOperations.remove(last);
+                return;
+            }
+            if (operation == PointOperation.MONOCHROME) {
+                return;
+            }
+        }
+        pointOperations.add(operation);
+    }
+
+    private static boolean hasEffect(PointOperation operation, String format) {
+        return switch (operation) {
+            case GRAYSCALE -> format.equals("ppm");
+            case MONOCHROME -> !format.equals("pbm");
+            case NEGATIVE -> true;
+        };
+    }
+
+    /**
+     * Връща трансформациите на пиксели в реда, в който трябва да се приложат.
+     * @return трансформациите на пиксели
+     */
+    public List<PointOperation> getPointOperations() {
+        return pointOperations;
+    }
+
+    /**
+     * Връща нетната ориентация, която се прилага след трансформациите на пиксели.
+     * @return ориентацията
+     */
+    public Orientation getOrientation() {
+        return orientation;
+    }
+
+    /**
+     * Проверява дали планът не променя изображението.
+     * @return true, ако няма какво да се изпълни
+     */
+    public boolean isEmpty() {
+        return pointOperations.isEmpty() && orientation == Orientation.IDENTITY;
+    }
+
+    /**
+     * Връща стъпките на плана с имената, с които се пазят в сесията.
+     * @return стъпките на плана
+     */
+    public List<String> getSteps() {
+        List<String> steps = new ArrayList<>();
+        for (PointOperation operation : pointOperations) {
+            steps.add(operation.getName());
+        }
+        steps.addAll(orientation.getSteps());
+        return steps;
+    }
+}
@@ -0,0 +1,59 @@
+package image.transformation.impl;
+
+import exception.EditorException;
+import image.Image;
+import image.transformation.Transformation;
+
+/**
+ * Трансформация за огледално обръщане на изображение.
+ *
+ * Поддържа обръщане по хоризонтала ("horizontal") или вертикала ("vertical").
+ * Използва метода applyFlip() на изображението.
+ */
+public class FlipTransformation extends Transformation {
+
+    private final String axis;
+
+    /**
+     * Създава нова трансформация за огледално обръщане.
+     *
+     * @param axis посоката на обръщане ("horizontal" или "vertical")
+     * @throws EditorException ако посоката е невалидна
+     */
+    public FlipTransformation(String axis) throws EditorException {
+        if (!axis.equals("horizontal") && !axis.equals("vertical")) {
+            throw new EditorException("Invalid flip direction. Use 'horizontal' or 'vertical'.");
+        }
+        this.axis = axis;
+    }
+
+    /**
+     * Прилага огледалното обръщане към дадено изображение.
+     *
+     * @param image изображението, към което се прилага трансформацията
+     * @throws EditorException ако възникне проблем при обръщането
+     */
+    @Override
+    public void apply(Image image) throws EditorException {
+        image.applyFlip(axis);
+    }
+
+    /**
+     * Връща името на трансформацията, включително посоката.
+     *
+     * @return "flip_horizontal" или "flip_vertical"
+     */
+    @Override
+    public String getName() {
+        return "flip_" + axis;
+    }
+
+    /**
+     * Връща посоката на обръщане.
+     *
+     * @return "horizontal" или "vertical"
+     */
+    public String getAxis() {
+        return axis;
+    }
+}
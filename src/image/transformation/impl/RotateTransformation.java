@@ -7,7 +7,7 @@ import image.transformation.Transformation;
 /**
  * Трансформация за завъртане на изображение.
  *
- * Поддържа завъртане на ляво ("left") или дясно ("right").
+ * Поддържа завъртане на ляво ("left"), дясно ("right") или на 180 градуса ("180").
  * Използва метода applyRotation() на изображението.
  */
 public class RotateTransformation extends Transformation {
@@ -17,12 +17,12 @@ public class RotateTransformation extends Transformation {
     /**
      * Създава нова трансформация за завъртане в зададена посока.
      *
-     * @param direction посоката на завъртане ("left" или "right")
+     * @param direction посоката на завъртане ("left", "right" или "180")
      * @throws EditorException ако посоката е невалидна
      */
     public RotateTransformation(String direction) throws EditorException {
-        if (!direction.equals("left") && !direction.equals("right")) {
-            throw new EditorException("Invalid rotation direction. Use 'left' or 'right'.");
+        if (!direction.equals("left") && !direction.equals("right") && !direction.equals("180")) {
+            throw new EditorException("Invalid rotation direction. Use 'left', 'right' or '180'.");
         }
         this.direction = direction;
     }
@@ -0,0 +1,34 @@
+package image.transformation.impl;
+
+import exception.EditorException;
+import image.Image;
+import image.transformation.Transformation;
+
+/**
+ * Трансформация за транспониране на изображение.
+ *
+ * Използва метода applyTranspose() на изображението.
+ */
+public class TransposeTransformation extends Transformation {
+
+    /**
+     * Прилага транспонирането към дадено изображение.
+     *
+     * @param image изображението, към което се прилага трансформацията
+     * @throws EditorException ако възникне проблем при прилагане на трансформацията
+     */
+    @Override
+    public void apply(Image image) throws EditorException {
+        image.applyTranspose();
+    }
+
+    /**
+     * Връща името на трансформацията.
+     *
+     * @return "transpose"
+     */
+    @Override
+    public String getName() {
+        return "transpose";
+    }
+}
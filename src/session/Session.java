@@ -5,25 +5,38 @@ import java.util.List;
 
 
 import image.Image;
+import image.storage.SampleStorage;
 
 /**
  * Клас, представляващ сесия за работа с изображения.
  * Всяка сесия има уникално ID и съдържа списък с изображения
- * и списък с приложени трансформации.
+ * и списък с приложени трансформации. Пикселите на изображенията ѝ
+ * се създават в хранилището на сесията, което се освобождава при {@link #close()}.
  */
 public class Session {
     private final int id;
     private final List<Image> images;
     private final List<String> transformations;
+    private final SampleStorage storage;
     /**
      * Създава нова сесия с дадено ID и празни списъци за изображения и трансформации.
      *
      * @param id уникално идентификационно число на сесията
      */
     public Session(int id) {
+        this(id, SampleStorage.HEAP);
+    }
+    /**
+     * Създава нова празна сесия с дадено ID и хранилище за пикселите.
+     *
+     * @param id уникално идентификационно число на сесията
+     * @param storage хранилището, в което се създават пикселите на изображенията
+     */
+    public Session(int id, SampleStorage storage) {
         this.id = id;
         this.images = new ArrayList<>();
         this.transformations = new ArrayList<>();
+        this.storage = storage;
     }
     /**
      * Създава нова сесия с дадено ID и начална колекция от изображения.
@@ -32,9 +45,8 @@ public class Session {
      * @param images списък с изображения, които да се добавят в сесията
      */
     public Session(int id, List<Image> images) {
-        this.id = id;
-        this.images = new ArrayList<>(images);
-        this.transformations = new ArrayList<>();
+        this(id, SampleStorage.HEAP);
+        this.images.addAll(images);
     }
     /**
      * Връща уникалното ID на сесията.
@@ -44,6 +56,14 @@ public class Session {
     public int getId() {
         return id;
     }
+    /**
+     * Връща хранилището, в което се създават пикселите на изображенията в сесията.
+     *
+     * @return хранилището на сесията
+     */
+    public SampleStorage getStorage() {
+        return storage;
+    }
     /**
      * Добавя изображение към сесията.
      *
@@ -124,4 +144,13 @@ public class Session {
     public boolean hasTransformations() {
         return !transformations.isEmpty();
     }
+
+    /**
+     * Освобождава паметта на изображенията в сесията. След това те не могат
+     * да се използват.
+     */
+    public void close() {
+        images.clear();
+        storage.close();
+    }
 }
\ No newline at end of file
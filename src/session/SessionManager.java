@@ -2,6 +2,7 @@ package session;
 
 import exception.EditorException;
 import image.Image;
+import image.storage.SampleStorage;
 
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -62,7 +63,16 @@ public class SessionManager {
      * Създава празна сесия.
      */
     public void createSession() {
-        Session newSession = new Session(nextSessionId);
+        createSession(SampleStorage.HEAP);
+    }
+
+    /**
+     * Създава празна сесия, чиито изображения пазят пикселите си в {@code storage}.
+     * Хранилището се затваря заедно със сесията.
+     * @param storage Хранилището за пикселите на изображенията в сесията.
+     */
+    public void createSession(SampleStorage storage) {
+        Session newSession = new Session(nextSessionId, storage);
         sessions.put(nextSessionId, newSession);
         activeSession = newSession;
         nextSessionId++;
@@ -81,12 +91,14 @@ public class SessionManager {
     }
 
     /**
-     * Премахва текущата активна сесия от колекцията със сесии.
+     * Премахва текущата активна сесия от колекцията със сесии и освобождава
+     * паметта на изображенията ѝ.
      */
     public void closeCurrentSession() {
         if (activeSession != null) {
             int closedSessionId = activeSession.getId();
             sessions.remove(closedSessionId);
+            activeSession.close();
 
             System.out.println("Session " + closedSessionId + " closed successfully");  // ← ПЪРВО
 
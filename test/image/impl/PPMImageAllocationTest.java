@@ -0,0 +1,101 @@
+package image.impl;
+
+import image.storage.SampleBuffer;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Проверява, че трансформациите на пиксели в PPM не заделят памет за всеки пиксел.
+ * Паметта се мери във всички нишки, защото големите буфери се обработват паралелно.
+ */
+class PPMImageAllocationTest {
+    private static final int WIDTH = 2048;
+    private static final int HEIGHT = 2048;
+
+    /**
+     * Допустимата памет за едно обхождане: четвърт байт на пиксел. Масив от
+     * три {@code int} на пиксел струва поне 16 байта на пиксел.
+     */
+    private static final long BUDGET = (long) WIDTH * HEIGHT / 4;
+    /**
+     * Векторните цикли заделят обекти, докато не бъдат компилирани от C2,
+     * затова се мери установеното състояние: поне едно от тези обхождания
+     * трябва да се побере в бюджета.
+     */
+    private static final int MAX_PASSES = 50;
+
+    private final com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    private PPMImage image;
+
+    @BeforeEach
+    void createImage() {
+        assumeTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+
+        image = new PPMImage(new File("allocation.ppm"));
+        image.setMaxColorValue(255);
+        image.setDimensions(WIDTH, HEIGHT);
+        SampleBuffer pixels = image.getPixels();
+        Random random = new Random(7);
+        for (int k = 0; k < pixels.length(); k++) {
+            pixels.set(k, random.nextInt(256));
+        }
+    }
+
+    @Test
+    void grayscaleDoesNotAllocatePerPixel() {
+        assertAllocationFree(image::applyGrayscale);
+    }
+
+    @Test
+    void monochromeDoesNotAllocatePerPixel() {
+        assertAllocationFree(image::applyMonochrome);
+    }
+
+    @Test
+    void negativeDoesNotAllocatePerPixel() {
+        assertAllocationFree(image::applyNegative);
+    }
+
+    @Test
+    void fusedChainDoesNotAllocatePerPixel() {
+        assertAllocationFree(() -> image.applyTransformations(List.of("negative", "grayscale", "negative")));
+    }
+
+    private void assertAllocationFree(Action action) {
+        try {
+            long allocated = Long.MAX_VALUE;
+            for (int pass = 0; pass < MAX_PASSES && allocated >= BUDGET; pass++) {
+                long before = allocatedBytes();
+                action.run();
+                allocated = allocatedBytes() - before;
+            }
+            assertTrue(allocated < BUDGET, "allocated " + allocated + " bytes for "
+                    + (WIDTH * HEIGHT) + " pixels, budget " + BUDGET);
+        } catch (Exception e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private long allocatedBytes() {
+        long total = 0;
+        for (long allocated : threads.getThreadAllocatedBytes(threads.getAllThreadIds())) {
+            total += Math.max(allocated, 0);
+        }
+        return total;
+    }
+
+    @FunctionalInterface
+    private interface Action {
+        void run() throws Exception;
+    }
+}
@@ -0,0 +1,120 @@
+package image.impl;
+
+import image.storage.SampleBuffer;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Сравнява grayscale с цели числа с {@code (int) (0.3 * r + 0.59 * g + 0.11 * b)}
+ * за всички 2^24 пиксела с 8-битови канали и за случайни 16-битови пиксели.
+ */
+class PPMImageGrayscaleTest {
+    private static final int ALL_COLORS = 1 << 24;
+
+    @Test
+    void matchesDoubleFormulaForAllEightBitPixels() throws Exception {
+        PPMImage image = allColors();
+        image.applyGrayscale();
+        assertGray(image.getPixels(), ALL_COLORS, k -> k >>> 16, k -> k >>> 8 & 0xFF, k -> k & 0xFF);
+    }
+
+    @Test
+    void matchesDoubleFormulaAfterNegative() throws Exception {
+        PPMImage image = allColors();
+        image.applyTransformations(List.of("negative", "grayscale"));
+        assertGray(image.getPixels(), ALL_COLORS,
+                k -> 255 - (k >>> 16), k -> 255 - (k >>> 8 & 0xFF), k -> 255 - (k & 0xFF));
+    }
+
+    @Test
+    void matchesDoubleFormulaForChainedGrayscale() throws Exception {
+        PPMImage image = allColors();
+        image.applyTransformations(List.of("grayscale", "negative", "grayscale"));
+        Channel negatedGray = k -> 255 - gray(k >>> 16, k >>> 8 & 0xFF, k & 0xFF);
+        assertGray(image.getPixels(), ALL_COLORS, negatedGray, negatedGray, negatedGray);
+    }
+
+    @Test
+    void matchesDoubleFormulaForRepeatedGrayscaleOnSixteenBitGrays() throws Exception {
+        PPMImage image = new PPMImage(new File("grayscale16.ppm"));
+        image.setMaxColorValue(65535);
+        image.setDimensions(256, 256);
+        SampleBuffer pixels = image.getPixels();
+        for (int k = 0; k < 65536; k++) {
+            pixels.set(3 * k, k);
+            pixels.set(3 * k + 1, k);
+            pixels.set(3 * k + 2, k);
+        }
+
+        image.applyTransformations(List.of("grayscale", "grayscale"));
+        Channel once = k -> gray(k, k, k);
+        assertGray(image.getPixels(), 65536, once, once, once);
+    }
+
+    @Test
+    void matchesDoubleFormulaForSixteenBitPixels() throws Exception {
+        int width = 1024;
+        int height = 1024;
+        int[] colors = new int[width * height * 3];
+        Random random = new Random(15);
+        for (int k = 0; k < colors.length; k++) {
+            colors[k] = k < 3 * 65536 ? k / 3 : random.nextInt(65536);
+        }
+        PPMImage image = new PPMImage(new File("grayscale16.ppm"));
+        image.setMaxColorValue(65535);
+        image.setDimensions(width, height);
+        SampleBuffer pixels = image.getPixels();
+        for (int k = 0; k < colors.length; k++) {
+            pixels.set(k, colors[k]);
+        }
+
+        image.applyGrayscale();
+        assertGray(pixels, width * height, k -> colors[3 * k], k -> colors[3 * k + 1], k -> colors[3 * k + 2]);
+    }
+
+    /**
+     * Изображение 4096x4096, в което пиксел {@code k} има канали {@code k >>> 16},
+     * {@code k >>> 8 & 0xFF} и {@code k & 0xFF}.
+     */
+    private static PPMImage allColors() {
+        PPMImage image = new PPMImage(new File("grayscale.ppm"));
+        image.setMaxColorValue(255);
+        image.setDimensions(4096, 4096);
+        SampleBuffer pixels = image.getPixels();
+        for (int k = 0; k < ALL_COLORS; k++) {
+            pixels.set(3 * k, k >>> 16);
+            pixels.set(3 * k + 1, k >>> 8 & 0xFF);
+            pixels.set(3 * k + 2, k & 0xFF);
+        }
+        return image;
+    }
+
+    private static void assertGray(SampleBuffer pixels, int count, Channel red, Channel green, Channel blue) {
+        for (int k = 0; k < count; k++) {
+            int r = red.of(k);
+            int g = green.of(k);
+            int b = blue.of(k);
+            int expected = gray(r, g, b);
+            for (int channel = 0; channel < 3; channel++) {
+                int actual = pixels.get(3 * k + channel);
+                if (actual != expected) {
+                    assertEquals(expected, actual, "r=" + r + " g=" + g + " b=" + b);
+                }
+            }
+        }
+    }
+
+    private static int gray(int r, int g, int b) {
+        return (int) (0.3 * r + 0.59 * g + 0.11 * b);
+    }
+
+    @FunctionalInterface
+    private interface Channel {
+        int of(int pixel);
+    }
+}
@@ -0,0 +1,96 @@
+package image.io;
+
+import exception.EditorException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.Scanner;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Сравнява четенето на текстов PPM растер със {@link Scanner}, както го
+ * четеше {@code PPMImage} преди, и с {@link NetpbmTokenizer}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class NetpbmLoadBenchmark {
+    @Param({"2000x1500"})
+    public String size;
+
+    private File file;
+    private int[] samples;
+
+    @Setup
+    public void writeImage() throws IOException {
+        int width = Integer.parseInt(size.substring(0, size.indexOf('x')));
+        int height = Integer.parseInt(size.substring(size.indexOf('x') + 1));
+        file = File.createTempFile("load-benchmark", ".ppm");
+        Random random = new Random(42);
+        try (BufferedWriter writer = Files.newBufferedWriter(file.toPath())) {
+            writer.write("P3\n# benchmark image\n" + width + " " + height + "\n255\n");
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < width * 3; x++) {
+                    writer.write(Integer.toString(random.nextInt(256)));
+                    writer.write(' ');
+                }
+                writer.newLine();
+            }
+        }
+        samples = new int[width * height * 3];
+    }
+
+    @TearDown
+    public void deleteImage() {
+        file.delete();
+    }
+
+    @Benchmark
+    public int[] scanner() throws IOException {
+        try (Scanner scanner = new Scanner(file)) {
+            scanner.nextLine();
+            while (!scanner.hasNextInt()) {
+                scanner.nextLine();
+            }
+            scanner.nextInt();
+            scanner.nextInt();
+            scanner.nextInt();
+            for (int k = 0; k < samples.length; k++) {
+                samples[k] = scanner.nextInt();
+            }
+        }
+        return samples;
+    }
+
+    @Benchmark
+    public int[] tokenizer() throws IOException, EditorException {
+        try (NetpbmTokenizer tokenizer = NetpbmTokenizer.open(file)) {
+            tokenizer.nextMagicNumber();
+            tokenizer.nextInt();
+            tokenizer.nextInt();
+            tokenizer.nextInt();
+            for (int k = 0; k < samples.length; k++) {
+                samples[k] = tokenizer.nextInt();
+            }
+        }
+        return samples;
+    }
+}
@@ -0,0 +1,68 @@
+package image.io;
+
+import exception.EditorException;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class NetpbmTokenizerTest {
+    private static NetpbmTokenizer tokenizer(String text) {
+        return new NetpbmTokenizer(Channels.newChannel(
+                new ByteArrayInputStream(text.getBytes(StandardCharsets.ISO_8859_1))));
+    }
+
+    @Test
+    void skipsCommentsAnywhereInTheHeader() throws IOException, EditorException {
+        NetpbmTokenizer tokenizer = tokenizer("# leading\nP2#x\n3# width\n\t2\n# max\n255\n0 1 2\n3 4 255");
+        assertEquals("P2", tokenizer.nextMagicNumber());
+        assertEquals(3, tokenizer.nextInt());
+        assertEquals(2, tokenizer.nextInt());
+        assertEquals(255, tokenizer.nextInt());
+        for (int expected : new int[]{0, 1, 2, 3, 4, 255}) {
+            assertEquals(expected, tokenizer.nextInt());
+        }
+    }
+
+    @Test
+    void readsBitsWithoutSeparators() throws IOException, EditorException {
+        NetpbmTokenizer tokenizer = tokenizer("P1\n4 1\n1011");
+        tokenizer.nextMagicNumber();
+        tokenizer.nextInt();
+        tokenizer.nextInt();
+        assertEquals(1, tokenizer.nextBit());
+        assertEquals(0, tokenizer.nextBit());
+        assertEquals(1, tokenizer.nextBit());
+        assertEquals(1, tokenizer.nextBit());
+    }
+
+    @Test
+    void reportsRasterOffsetAfterSeparator() throws IOException, EditorException {
+        NetpbmTokenizer tokenizer = tokenizer("P5 # c\n2 1 255\n\u0001\u0002");
+        tokenizer.nextMagicNumber();
+        tokenizer.nextInt();
+        tokenizer.nextInt();
+        tokenizer.nextInt();
+        tokenizer.skipRasterSeparator();
+        assertEquals(15, tokenizer.offset());
+    }
+
+    @Test
+    void rejectsMalformedInput() {
+        assertEquals("No magic number found",
+                assertThrows(EditorException.class, () -> tokenizer("X3").nextMagicNumber()).getMessage());
+        assertEquals("Invalid token: unexpected character 'x'",
+                assertThrows(EditorException.class, () -> tokenizer("12x").nextInt()).getMessage());
+        assertEquals("Unexpected end of file",
+                assertThrows(EditorException.class, () -> tokenizer("  # only a comment").nextInt()).getMessage());
+        assertEquals("Number too large",
+                assertThrows(EditorException.class, () -> tokenizer("99999999999").nextInt()).getMessage());
+        assertEquals("Invalid pixel value: 2",
+                assertThrows(EditorException.class, () -> tokenizer("2").nextBit()).getMessage());
+    }
+}
@@ -0,0 +1,95 @@
+package image.storage.impl;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Сравнява {@link ScalarArrayKernels} и {@link VectorArrayKernels} върху
+ * 8-битов RGB растер 2048x2048 и 16-битов растер със същия брой семпли.
+ * Операциите се изпълняват в една нишка, без {@code ParallelBands}.
+ * <p>
+ * Преди всяко извикване растерът се възстановява, защото luminance
+ * на вече сиво изображение минава през скаларния цикъл.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class ArrayKernelsBenchmark {
+    private static final int SAMPLES = 2048 * 2048 * 3;
+
+    @Param({"scalar", "vector"})
+    public String kernels;
+
+    private ArrayKernels kernel;
+    private byte[] original;
+    private short[] originalShorts;
+    private byte[] bytes;
+    private short[] shorts;
+
+    @Setup
+    public void createRaster() {
+        kernel = kernels.equals("vector") ? new VectorArrayKernels() : new ScalarArrayKernels();
+        Random random = new Random(17);
+        original = new byte[SAMPLES];
+        random.nextBytes(original);
+        originalShorts = new short[SAMPLES];
+        for (int k = 0; k < SAMPLES; k++) {
+            originalShorts[k] = (short) random.nextInt(65536);
+        }
+        bytes = new byte[SAMPLES];
+        shorts = new short[SAMPLES];
+    }
+
+    @Setup(Level.Invocation)
+    public void restoreRaster() {
+        System.arraycopy(original, 0, bytes, 0, SAMPLES);
+        System.arraycopy(originalShorts, 0, shorts, 0, SAMPLES);
+    }
+
+    @Benchmark
+    public byte[] invert() {
+        kernel.invert(bytes, 0, SAMPLES, 255);
+        return bytes;
+    }
+
+    @Benchmark
+    public byte[] threshold() {
+        kernel.threshold(bytes, 0, SAMPLES, 127, 255);
+        return bytes;
+    }
+
+    @Benchmark
+    public byte[] luminance() {
+        kernel.luminance(bytes, 0, SAMPLES, 30, 59, 11);
+        return bytes;
+    }
+
+    @Benchmark
+    public short[] invertShorts() {
+        kernel.invert(shorts, 0, SAMPLES, 65535);
+        return shorts;
+    }
+
+    @Benchmark
+    public short[] thresholdShorts() {
+        kernel.threshold(shorts, 0, SAMPLES, 32767, 65535);
+        return shorts;
+    }
+}